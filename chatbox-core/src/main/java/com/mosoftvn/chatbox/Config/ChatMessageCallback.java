@@ -0,0 +1,25 @@
+package com.mosoftvn.chatbox.Config;
+
+import com.mosoftvn.chatbox.Document.ChatMessage;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertCallback;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+
+// Chạy trước mỗi lần lưu ChatMessage: đảm bảo luôn có timestamp và khóa hội thoại
+// (Index phân trang dựa vào 2 trường này nên không được để null)
+@Component
+public class ChatMessageCallback implements BeforeConvertCallback<ChatMessage> {
+
+    @Override
+    public ChatMessage onBeforeConvert(ChatMessage message, String collection) {
+        if (message.getTimestamp() == null) {
+            message.setTimestamp(LocalDateTime.now());
+        }
+        if (message.getConversationId() == null
+                && message.getSenderId() != null && message.getRecipientId() != null) {
+            message.setConversationId(message.resolveConversationId());
+        }
+        return message;
+    }
+}
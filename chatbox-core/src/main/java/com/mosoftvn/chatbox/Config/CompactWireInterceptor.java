@@ -0,0 +1,122 @@
+package com.mosoftvn.chatbox.Config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Chế độ "gọn" cho payload WebSocket, client tự chọn lúc CONNECT (header wire-format: compact).
+// Chỉ bỏ các trường null (VD: ChatMessage chưa sửa, chưa có file...). false / {} / [] là giá trị thật
+// (VD: bài vừa bị gỡ cảm xúc cuối cùng -> reactionCounts = {}), client đọc chúng nên phải giữ nguyên.
+// Frame MSG_UPDATE giữ nguyên vì null trong delta là giá trị thật (bỏ ghim, xóa file...)
+@Component
+public class CompactWireInterceptor implements ChannelInterceptor {
+
+    public static final String WIRE_FORMAT_HEADER = "wire-format";
+    public static final String COMPACT = "compact";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Set<String> compactSessions = ConcurrentHashMap.newKeySet();
+
+    // 1 tin bắn vào topic dùng chung 1 mảng byte cho mọi subscriber -> chỉ nén 1 lần (khóa so sánh theo địa chỉ)
+    private final Cache<byte[], byte[]> compacted = Caffeine.newBuilder().weakKeys().maximumSize(1000).build();
+
+    private Counter originalBytes;
+    private Counter compactBytes;
+
+    @PostConstruct
+    public void init() {
+        originalBytes = Counter.builder("chat.ws.compact.bytes").tag("kind", "original").register(meterRegistry);
+        compactBytes = Counter.builder("chat.ws.compact.bytes").tag("kind", "compact").register(meterRegistry);
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(message.getHeaders());
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        if (sessionId == null) return message;
+
+        // Chiều vào: ghi nhận session chọn chế độ gọn
+        if (SimpMessageType.CONNECT.equals(type)) {
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(message);
+            if (COMPACT.equalsIgnoreCase(accessor.getFirstNativeHeader(WIRE_FORMAT_HEADER))) {
+                compactSessions.add(sessionId);
+            }
+            return message;
+        }
+
+        // Chiều ra: chỉ xử lý tin gửi xuống (MESSAGE) dạng JSON của session đã chọn
+        if (!SimpMessageType.MESSAGE.equals(type) || !compactSessions.contains(sessionId)) {
+            return message;
+        }
+        if (!(message.getPayload() instanceof byte[] payload) || payload.length == 0) {
+            return message;
+        }
+
+        byte[] compact = compacted.get(payload, this::compact);
+        if (compact == payload) return message;
+
+        originalBytes.increment(payload.length);
+        compactBytes.increment(compact.length);
+        return MessageBuilder.createMessage(compact, message.getHeaders());
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        compactSessions.remove(event.getSessionId());
+    }
+
+    // Trả về chính mảng cũ nếu không phải JSON / không gọn hơn được
+    byte[] compact(byte[] json) {
+        try {
+            JsonNode root = objectMapper.readTree(json);
+            if (root == null || !root.isContainerNode()) return json;
+            if (root.isObject() && "MSG_UPDATE".equals(root.path("type").asText())) return json;
+
+            strip(root);
+            byte[] result = objectMapper.writeValueAsBytes(root);
+            return result.length < json.length ? result : json;
+        } catch (IOException e) {
+            return json;
+        }
+    }
+
+    private void strip(JsonNode node) {
+        if (node.isArray()) {
+            node.forEach(this::strip);
+            return;
+        }
+        if (!node.isObject()) return;
+
+        for (Iterator<Map.Entry<String, JsonNode>> it = ((ObjectNode) node).properties().iterator(); it.hasNext(); ) {
+            JsonNode value = it.next().getValue();
+            strip(value);
+            if (value.isNull()) it.remove();
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package com.mosoftvn.chatbox.Config;
 
-import com.mosoftvn.chatbox.Entity.User;
-import com.mosoftvn.chatbox.Repository.UserRepository;
+import com.mosoftvn.chatbox.DTO.UserSnapshot;
+import com.mosoftvn.chatbox.Service.UserSnapshotCache;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -24,7 +25,10 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     private JwtUtil jwtUtil;
 
     @Autowired
-    private UserRepository userRepository;
+    private UserSnapshotCache userSnapshotCache;
+
+    @Autowired
+    private VerifiedTokenCache verifiedTokenCache;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request,
@@ -34,60 +38,54 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         final String authHeader = request.getHeader("Authorization");
 
-        // Kiểm tra xem có nhận được Header không
-        if (authHeader == null) {
-            System.out.println("LOG: Không thấy Header Authorization đâu cả!");
+        // Không có token / sai định dạng -> đi tiếp như khách
+        if (authHeader == null || !authHeader.startsWith("Bearer ")
+                || SecurityContextHolder.getContext().getAuthentication() != null) {
             filterChain.doFilter(request, response);
             return;
         }
 
-        if (!authHeader.startsWith("Bearer ")) {
-            System.out.println("LOG: Header có gửi nhưng sai định dạng (Thiếu Bearer ): " + authHeader);
-            filterChain.doFilter(request, response);
-            return;
+        final String jwt = authHeader.substring(7);
+
+        // Token đã xác thực gần đây -> dùng luôn, không parse lại / không đọc DB
+        VerifiedTokenCache.VerifiedToken verified = verifiedTokenCache.get(jwt);
+        if (verified == null) {
+            verified = verify(jwt);
+            if (verified != null) verifiedTokenCache.put(jwt, verified);
         }
 
-        final String jwt = authHeader.substring(7);
-        final String username;
+        if (verified != null) {
+            UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
+                    verified.getUsername(), null, verified.getAuthorities());
+            authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+            SecurityContextHolder.getContext().setAuthentication(authToken);
+        }
 
+        filterChain.doFilter(request, response);
+    }
+
+    // Cache miss: parse token 1 lần (chữ ký + hạn dùng), rồi lấy quyền hiện tại của user (snapshot cache, miss mới đọc DB)
+    private VerifiedTokenCache.VerifiedToken verify(String jwt) {
+        Claims claims;
         try {
-            username = jwtUtil.extractUsername(jwt);
-            System.out.println("LOG: Đã đọc được user từ Token: " + username);
+            claims = jwtUtil.parseClaims(jwt);
         } catch (Exception e) {
-            System.out.println("LOG: Token lỗi, không đọc được tên! " + e.getMessage());
-            filterChain.doFilter(request, response);
-            return;
+            System.out.println("LOG: Token không hợp lệ: " + e.getMessage());
+            return null;
         }
 
-        if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-            User user = userRepository.findByUsername(username).orElse(null);
-
-            if (user == null) {
-                System.out.println("LOG: User '" + username + "' có trong Token nhưng KHÔNG TÌM THẤY trong Database (Có thể đã bị xóa?)");
-            } else {
-                if (jwtUtil.validateToken(jwt, user.getUsername())) {
-                    System.out.println("LOG: Token HỢP LỆ! Đang cấp quyền vào cửa...");
-
-                    // Chú ý: Kiểm tra null ở getRole()
-                    String roleName = (user.getRole() != null) ? user.getRole().getName() : "ROLE_USER";
-
-                    UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                            user.getUsername(),
-                            null,
-                            List.of(new SimpleGrantedAuthority(roleName))
-                    );
-                    System.out.println("👉 USER: " + username);
-//                   System.out.println("👉 QUYỀN THỰC TẾ: " + userDetails.getAuthorities());
-
-                    authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                    SecurityContextHolder.getContext().setAuthentication(authToken);
-                    System.out.println("LOG: Xác thực thành công cho: " + username);
-                } else {
-                    System.out.println("LOG: Token hết hạn hoặc không khớp user!");
-                }
-            }
+        UserSnapshot user = userSnapshotCache.get(claims.getSubject()).orElse(null);
+        if (user == null) {
+            System.out.println("LOG: User '" + claims.getSubject() + "' có trong Token nhưng KHÔNG TÌM THẤY trong Database");
+            return null;
+        }
+        // Tài khoản bị khóa -> coi như khách (admin khóa thì snapshot + token cache đã bị xóa, lần sau đọc lại)
+        if (!user.isEnabled()) {
+            System.out.println("LOG: User '" + user.getUsername() + "' đã bị khóa, từ chối Token");
+            return null;
         }
 
-        filterChain.doFilter(request, response);
+        return new VerifiedTokenCache.VerifiedToken(user.getUsername(),
+                List.of(new SimpleGrantedAuthority(user.getRole())), claims.getExpiration().getTime());
     }
-}
\ No newline at end of file
+}
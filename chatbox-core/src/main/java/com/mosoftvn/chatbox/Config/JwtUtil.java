@@ -1,10 +1,11 @@
 package com.mosoftvn.chatbox.Config;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
-import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -23,6 +24,17 @@ public class JwtUtil {
     @Value("${application.security.jwt.expiration}")
     private long jwtExpiration;
 
+    // Khóa HMAC chỉ tạo 1 lần (trước đây mỗi lần ký/kiểm tra token đều decode + tạo lại)
+    private Key signInKey;
+
+    private JwtParser parser;
+
+    @PostConstruct
+    public void init() {
+        signInKey = Keys.hmacShaKeyFor(secretKey.getBytes());
+        parser = Jwts.parserBuilder().setSigningKey(signInKey).build();
+    }
+
     // 🟢 1. CẬP NHẬT: Thêm tham số 'role' vào hàm tạo Token
     public String generateToken(String username, String role) {
         Map<String, Object> claims = new HashMap<>();
@@ -51,6 +63,11 @@ public class JwtUtil {
         return extractClaim(token, claims -> claims.get("role", String.class));
     }
 
+    // Parse + kiểm tra chữ ký + hạn dùng trong 1 lần duy nhất (token sai/hết hạn -> ném JwtException)
+    public Claims parseClaims(String token) {
+        return extractAllClaims(token);
+    }
+
     // 4. Kiểm tra Token
     public boolean validateToken(String token, String userDetailsUsername) {
         final String username = extractUsername(token);
@@ -59,8 +76,7 @@ public class JwtUtil {
 
     // --- CÁC HÀM PHỤ TRỢ (Private) ---
     private Key getSignInKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(java.util.Base64.getEncoder().encodeToString(secretKey.getBytes()));
-        return Keys.hmacShaKeyFor(keyBytes);
+        return signInKey;
     }
 
     private <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
@@ -69,11 +85,7 @@ public class JwtUtil {
     }
 
     private Claims extractAllClaims(String token) {
-        return Jwts.parserBuilder()
-                .setSigningKey(getSignInKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return parser.parseClaimsJws(token).getBody();
     }
 
     private boolean isTokenExpired(String token) {
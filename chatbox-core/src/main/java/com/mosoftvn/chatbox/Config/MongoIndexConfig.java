@@ -0,0 +1,68 @@
+package com.mosoftvn.chatbox.Config;
+
+import com.mosoftvn.chatbox.Document.ChatMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mapping.context.MappingContext;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.stream.Stream;
+
+// Spring Boot mặc định KHÔNG tự tạo index từ @CompoundIndex -> tạo thủ công khi app khởi động
+@Component
+public class MongoIndexConfig {
+
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initIndexes() {
+        MappingContext<? extends MongoPersistentEntity<?>, MongoPersistentProperty> mappingContext =
+                mongoTemplate.getConverter().getMappingContext();
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+
+        IndexOperations indexOps = mongoTemplate.indexOps(ChatMessage.class);
+        resolver.resolveIndexFor(ChatMessage.class).forEach(indexOps::createIndex);
+
+        backfillConversationIds();
+    }
+
+    // Tin nhắn cũ (trước khi có conversationId) -> bổ sung khóa theo lô, chỉ chạy 1 lần vì lần sau không còn bản ghi thiếu
+    private void backfillConversationIds() {
+        Query missing = new Query(Criteria.where("conversationId").exists(false)
+                .and("senderId").ne(null).and("recipientId").ne(null));
+        missing.fields().include("senderId", "recipientId", "type");
+
+        int count = 0;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatMessage.class);
+        try (Stream<ChatMessage> stream = mongoTemplate.stream(missing, ChatMessage.class)) {
+            for (ChatMessage msg : (Iterable<ChatMessage>) stream::iterator) {
+                bulk.updateOne(Query.query(Criteria.where("_id").is(msg.getId())),
+                        Update.update("conversationId", msg.resolveConversationId()));
+                if (++count % BACKFILL_BATCH_SIZE == 0) {
+                    bulk.execute();
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ChatMessage.class);
+                }
+            }
+        }
+        if (count % BACKFILL_BATCH_SIZE != 0) {
+            bulk.execute();
+        }
+        if (count > 0) {
+            System.out.println("LOG: Đã bổ sung conversationId cho " + count + " tin nhắn cũ");
+        }
+    }
+}
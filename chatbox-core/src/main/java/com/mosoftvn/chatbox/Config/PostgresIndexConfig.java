@@ -0,0 +1,34 @@
+package com.mosoftvn.chatbox.Config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Index dạng biểu thức (lower(...)) không khai báo được bằng @Index của JPA -> tạo khi app khởi động
+@Component
+public class PostgresIndexConfig {
+
+    // text_pattern_ops: cho phép LIKE 'abc%' dùng index kể cả khi DB không dùng collation "C"
+    private static final List<String> INDEXES = List.of(
+            "CREATE INDEX IF NOT EXISTS idx_users_username_lower ON users (lower(username) text_pattern_ops)",
+            "CREATE INDEX IF NOT EXISTS idx_users_full_name_lower ON users (lower(full_name) text_pattern_ops)"
+    );
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initIndexes() {
+        for (String ddl : INDEXES) {
+            try {
+                jdbcTemplate.execute(ddl);
+            } catch (Exception e) {
+                System.out.println("LOG: Không tạo được index: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.mosoftvn.chatbox.Config;
+
+import com.mosoftvn.chatbox.DTO.UserSnapshot;
+import com.mosoftvn.chatbox.Service.UserSnapshotCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+// Xác thực WebSocket: kiểm tra JWT 1 lần duy nhất ở frame CONNECT rồi gắn user vào session.
+// Quyền lấy từ tài khoản hiện tại (UserSnapshotCache) chứ không từ claim trong token: user bị xóa / khóa / hạ quyền
+// không mở được session mới với quyền cũ (giống filter HTTP)
+// Spring giữ user này cho mọi frame sau của session -> không phải đọc token/DB cho từng tin nhắn,
+// convertAndSendToUser gửi đúng session của user thật (không tin senderId client tự khai)
+@Component
+public class StompAuthChannelInterceptor implements ChannelInterceptor {
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    @Autowired
+    private UserSnapshotCache userSnapshotCache;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null) return message;
+
+        if (StompCommand.CONNECT.equals(accessor.getCommand())) {
+            String authHeader = accessor.getFirstNativeHeader("Authorization");
+            if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+                throw new MessageDeliveryException("Thiếu token khi kết nối WebSocket");
+            }
+            String jwt = authHeader.substring(7);
+
+            String username;
+            try {
+                username = jwtUtil.parseClaims(jwt).getSubject();
+            } catch (Exception e) {
+                // Chữ ký sai / hết hạn -> parser báo lỗi
+                throw new MessageDeliveryException("Token không hợp lệ: " + e.getMessage());
+            }
+
+            UserSnapshot user = userSnapshotCache.get(username).orElse(null);
+            if (user == null) {
+                throw new MessageDeliveryException("Tài khoản không tồn tại");
+            }
+            if (!user.isEnabled()) {
+                throw new MessageDeliveryException("Tài khoản đã bị khóa");
+            }
+
+            accessor.setUser(new UsernamePasswordAuthenticationToken(user.getUsername(), null,
+                    List.of(new SimpleGrantedAuthority(user.getRole()))));
+        } else if (accessor.getCommand() != null && accessor.getCommand() != StompCommand.DISCONNECT
+                && accessor.getUser() == null) {
+            // Không cho gửi/đăng ký khi chưa CONNECT thành công
+            throw new MessageDeliveryException("Chưa xác thực WebSocket");
+        }
+        return message;
+    }
+}
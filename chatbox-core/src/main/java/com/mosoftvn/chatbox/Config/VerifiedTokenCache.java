@@ -0,0 +1,95 @@
+package com.mosoftvn.chatbox.Config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+
+// Cache token đã xác thực: hash(token) -> user + quyền + hạn dùng.
+// Request sau cùng token không phải parse JWT / đọc DB nữa. Mục hết hạn cùng lúc với token (hoặc sau ttl, lấy mốc sớm hơn)
+@Component
+public class VerifiedTokenCache {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${security.jwt.cache.max-entries:10000}")
+    private long maxEntries;
+
+    // Thời gian tối đa 1 token nằm trong cache trước khi phải kiểm tra lại với DB
+    @Value("${security.jwt.cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private Cache<String, VerifiedToken> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(new Expiry<String, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(String key, VerifiedToken value, long currentTime) {
+                        long untilTokenExpiry = Math.max(0, value.getExpiresAtMillis() - System.currentTimeMillis());
+                        return Duration.ofMillis(Math.min(untilTokenExpiry, ttlSeconds * 1000)).toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, VerifiedToken value, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, value, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, VerifiedToken value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "jwt.verified");
+    }
+
+    public VerifiedToken get(String token) {
+        return cache.getIfPresent(hash(token));
+    }
+
+    public void put(String token, VerifiedToken verified) {
+        cache.put(hash(token), verified);
+    }
+
+    // Thu hồi: user bị khóa/xóa/đổi quyền -> mọi token của user đó phải xác thực lại từ DB
+    public void invalidateUser(String username) {
+        cache.asMap().values().removeIf(v -> v.getUsername().equals(username));
+    }
+
+    private static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class VerifiedToken {
+        private final String username;
+        private final List<GrantedAuthority> authorities;
+        private final long expiresAtMillis;
+    }
+}
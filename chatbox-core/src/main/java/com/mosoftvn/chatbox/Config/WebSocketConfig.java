@@ -1,15 +1,87 @@
 package com.mosoftvn.chatbox.Config;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.config.StompBrokerRelayRegistration;
+import org.springframework.messaging.simp.config.TaskExecutorRegistration;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    @Autowired
+    private StompAuthChannelInterceptor stompAuthChannelInterceptor;
+
+    @Autowired
+    private CompactWireInterceptor compactWireInterceptor;
+
+    // Scheduler có sẵn của Spring WebSocket (lazy để tránh vòng phụ thuộc khi khởi tạo)
+    @Autowired
+    @Lazy
+    private TaskScheduler messageBrokerTaskScheduler;
+
+    @Value("${chat.ws.heartbeat-ms:10000}")
+    private long heartbeatMs;
+
+    // simple: broker trong RAM (mặc định, chỉ chạy được 1 instance)
+    // relay : chuyển tiếp qua broker STOMP bên ngoài (RabbitMQ/ActiveMQ) để chạy nhiều instance
+    @Value("${chat.broker.mode:simple}")
+    private String brokerMode;
+
+    @Value("${chat.broker.relay.host:localhost}")
+    private String relayHost;
+
+    @Value("${chat.broker.relay.port:61613}")
+    private int relayPort;
+
+    @Value("${chat.broker.relay.login:guest}")
+    private String relayLogin;
+
+    @Value("${chat.broker.relay.passcode:guest}")
+    private String relayPasscode;
+
+    @Value("${chat.broker.relay.virtual-host:}")
+    private String relayVirtualHost;
+
+    // Luồng xử lý tin client gửi lên / tin gửi xuống client (0 = để mặc định của Spring: 2 x số CPU, hàng đợi không giới hạn)
+    @Value("${chat.ws.inbound.core-pool-size:0}")
+    private int inboundCorePoolSize;
+
+    @Value("${chat.ws.inbound.max-pool-size:0}")
+    private int inboundMaxPoolSize;
+
+    @Value("${chat.ws.inbound.queue-capacity:0}")
+    private int inboundQueueCapacity;
+
+    @Value("${chat.ws.outbound.core-pool-size:0}")
+    private int outboundCorePoolSize;
+
+    @Value("${chat.ws.outbound.max-pool-size:0}")
+    private int outboundMaxPoolSize;
+
+    @Value("${chat.ws.outbound.queue-capacity:0}")
+    private int outboundQueueCapacity;
+
+    // Giới hạn cho từng session: client chậm vượt quá thì bị ngắt kết nối thay vì làm phình bộ nhớ
+    @Value("${chat.ws.send-buffer-size-limit:524288}")
+    private int sendBufferSizeLimit;
+
+    @Value("${chat.ws.send-time-limit-ms:15000}")
+    private int sendTimeLimitMs;
+
+    // Kích thước tối đa 1 tin STOMP client gửi lên
+    @Value("${chat.ws.message-size-limit:65536}")
+    private int messageSizeLimit;
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         // ws://localhost:8081/ws
@@ -20,8 +92,31 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        // Server gửi tin nhắn về Client qua đường dẫn bắt đầu bằng /user
-        registry.enableSimpleBroker("/user", "/topic");
+        if ("relay".equalsIgnoreCase(brokerMode)) {
+            // RabbitMQ/ActiveMQ chỉ nhận đích /topic, /queue.
+            // Tin gửi cho user ở node khác: node không tìm thấy session sẽ phát lên topic chung,
+            // node đang giữ session nhận lại và gửi xuống. Danh sách user online cũng được đồng bộ giữa các node
+            StompBrokerRelayRegistration relay = registry.enableStompBrokerRelay("/topic", "/queue")
+                    .setRelayHost(relayHost)
+                    .setRelayPort(relayPort)
+                    .setClientLogin(relayLogin)
+                    .setClientPasscode(relayPasscode)
+                    .setSystemLogin(relayLogin)
+                    .setSystemPasscode(relayPasscode)
+                    .setUserDestinationBroadcast("/topic/unresolved-user-destination")
+                    .setUserRegistryBroadcast("/topic/simp-user-registry");
+            if (!relayVirtualHost.isEmpty()) {
+                relay.setVirtualHost(relayVirtualHost);
+            }
+            System.out.println("LOG: WebSocket dùng broker relay " + relayHost + ":" + relayPort);
+        } else {
+            // /topic: kênh chung, /queue: kênh riêng của từng user (client đăng ký /user/queue/...,
+            // Spring tự đổi sang hàng đợi của đúng session theo user đã xác thực)
+            // Heartbeat 2 chiều: client mất mạng (không kịp DISCONNECT) sẽ bị đóng phiên -> PresenceService báo offline
+            registry.enableSimpleBroker("/topic", "/queue")
+                    .setHeartbeatValue(new long[]{heartbeatMs, heartbeatMs})
+                    .setTaskScheduler(messageBrokerTaskScheduler);
+        }
 
         // Client gửi tin nhắn lên Server qua đường dẫn bắt đầu bằng /app
         registry.setApplicationDestinationPrefixes("/app");
@@ -29,4 +124,32 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         // Cấu hình tiền tố cho tin nhắn riêng tư (1-1)
         registry.setUserDestinationPrefix("/user");
     }
-}
\ No newline at end of file
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setMessageSizeLimit(messageSizeLimit)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setSendTimeLimit(sendTimeLimitMs);
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        // Xác thực JWT ở frame CONNECT, gắn user cho cả session
+        registration.interceptors(stompAuthChannelInterceptor, compactWireInterceptor);
+        configureExecutor(registration, inboundCorePoolSize, inboundMaxPoolSize, inboundQueueCapacity);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        // Session chọn wire-format: compact -> bỏ các trường rỗng/mặc định trước khi gửi
+        registration.interceptors(compactWireInterceptor);
+        configureExecutor(registration, outboundCorePoolSize, outboundMaxPoolSize, outboundQueueCapacity);
+    }
+
+    private void configureExecutor(ChannelRegistration registration, int corePoolSize, int maxPoolSize, int queueCapacity) {
+        TaskExecutorRegistration executor = registration.taskExecutor();
+        if (corePoolSize > 0) executor.corePoolSize(corePoolSize);
+        if (maxPoolSize > 0) executor.maxPoolSize(maxPoolSize);
+        if (queueCapacity > 0) executor.queueCapacity(queueCapacity);
+    }
+}
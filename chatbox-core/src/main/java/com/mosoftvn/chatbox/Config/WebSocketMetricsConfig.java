@@ -0,0 +1,70 @@
+package com.mosoftvn.chatbox.Config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.config.WebSocketMessageBrokerStats;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import java.util.concurrent.Executor;
+import java.util.function.ToIntFunction;
+
+// Đưa số liệu WebSocket lên /actuator/metrics để chỉnh kích thước pool khi chạy tải:
+// websocket.channel.* (tag channel=inbound|outbound) và websocket.sessions (tag state=...)
+@Component
+public class WebSocketMetricsConfig {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("clientInboundChannelExecutor")
+    private Executor inboundExecutor;
+
+    @Autowired
+    @Qualifier("clientOutboundChannelExecutor")
+    private Executor outboundExecutor;
+
+    @Autowired
+    private WebSocketMessageBrokerStats brokerStats;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void registerMetrics() {
+        registerExecutor("inbound", inboundExecutor);
+        registerExecutor("outbound", outboundExecutor);
+
+        registerSessions("total", SubProtocolWebSocketHandler.Stats::getTotalSessions);
+        registerSessions("websocket", SubProtocolWebSocketHandler.Stats::getWebSocketSessions);
+        registerSessions("http_streaming", SubProtocolWebSocketHandler.Stats::getHttpStreamingSessions);
+        registerSessions("http_polling", SubProtocolWebSocketHandler.Stats::getHttpPollingSessions);
+        // Các session bị đóng do vượt giới hạn gửi (client chậm) / không gửi gì / lỗi đường truyền
+        registerSessions("limit_exceeded", SubProtocolWebSocketHandler.Stats::getLimitExceededSessions);
+        registerSessions("no_messages", SubProtocolWebSocketHandler.Stats::getNoMessagesReceivedSessions);
+        registerSessions("transport_error", SubProtocolWebSocketHandler.Stats::getTransportErrorSessions);
+    }
+
+    private void registerExecutor(String channel, Executor channelExecutor) {
+        if (!(channelExecutor instanceof ThreadPoolTaskExecutor executor)) return;
+        Gauge.builder("websocket.channel.queue.size", executor, e -> e.getThreadPoolExecutor().getQueue().size())
+                .tag("channel", channel).register(meterRegistry);
+        Gauge.builder("websocket.channel.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .tag("channel", channel).register(meterRegistry);
+        Gauge.builder("websocket.channel.pool.size", executor, ThreadPoolTaskExecutor::getPoolSize)
+                .tag("channel", channel).register(meterRegistry);
+        Gauge.builder("websocket.channel.completed", executor, e -> e.getThreadPoolExecutor().getCompletedTaskCount())
+                .tag("channel", channel).register(meterRegistry);
+    }
+
+    private void registerSessions(String state, ToIntFunction<SubProtocolWebSocketHandler.Stats> value) {
+        Gauge.builder("websocket.sessions", brokerStats, stats -> {
+                    SubProtocolWebSocketHandler.Stats sessionStats = stats.getWebSocketSessionStats();
+                    return sessionStats == null ? 0 : value.applyAsInt(sessionStats);
+                })
+                .tag("state", state).register(meterRegistry);
+    }
+}
@@ -23,7 +23,9 @@ public class AIController {
         // 1. Xây dựng câu lệnh hoàn chỉnh cho AI
         String finalPrompt = buildPrompt(prompt, tone);
 
-        String result = geminiService.callGemini(finalPrompt);
+        // "noCache": "true" -> luôn hỏi lại AI (bỏ qua câu trả lời đã cache)
+        boolean useCache = !"true".equalsIgnoreCase(body.get("noCache"));
+        String result = geminiService.callGemini(finalPrompt, useCache);
 
         // 3. Trả về đúng định dạng Frontend cần: { "content": "..." }
         return ResponseEntity.ok(Map.of("content", result));
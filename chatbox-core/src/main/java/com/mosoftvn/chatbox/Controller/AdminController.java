@@ -6,6 +6,7 @@ import com.mosoftvn.chatbox.Repository.RoleRepository;
 import com.mosoftvn.chatbox.Repository.TransactionRepository;
 import com.mosoftvn.chatbox.Repository.UserRepository;
 import com.mosoftvn.chatbox.Service.PaymentService;
+import com.mosoftvn.chatbox.Service.UserSnapshotCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder; // Để mã hóa pass nếu tạo mới
@@ -35,6 +36,9 @@ public class AdminController {
     @Autowired
     private TransactionRepository transactionRepository;
 
+    @Autowired
+    private UserSnapshotCache userSnapshotCache;
+
     // --- 1. QUẢN LÝ GIAO DỊCH (CODE CŨ) ---
     @GetMapping("/transactions")
     public List<PaymentDTO.TransactionResponse> getAllTransactions() {
@@ -62,10 +66,13 @@ public class AdminController {
     // B. Xóa User
     @DeleteMapping("/users/{id}")
     public ResponseEntity<?> deleteUser(@PathVariable Long id) {
-        if (!userRepository.existsById(id)) {
+        User user = userRepository.findById(id).orElse(null);
+        if (user == null) {
             return ResponseEntity.notFound().build();
         }
         userRepository.deleteById(id);
+        // Xóa snapshot + token còn hạn của user này khỏi cache
+        userSnapshotCache.invalidate(user.getUsername());
         return ResponseEntity.ok().body(Map.of("message", "Xóa thành công"));
     }
 
@@ -96,6 +103,8 @@ public class AdminController {
         }
 
         userRepository.save(user);
+        // Đổi quyền/khóa/đổi tên -> snapshot + token đang cache phải nạp lại
+        userSnapshotCache.invalidate(user.getUsername());
         return ResponseEntity.ok(user);
     }
 
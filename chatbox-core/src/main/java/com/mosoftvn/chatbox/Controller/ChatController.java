@@ -1,13 +1,12 @@
 package com.mosoftvn.chatbox.Controller;
 
-import com.mosoftvn.chatbox.DTO.GroupDetailDTO;
+import com.mosoftvn.chatbox.DTO.ChatHistoryPage;
 import com.mosoftvn.chatbox.Document.ChatMessage;
-import com.mosoftvn.chatbox.Entity.ChatGroup;
-import com.mosoftvn.chatbox.Repository.ChatGroupRepository;
 import com.mosoftvn.chatbox.Repository.ChatMessageRepository;
+import com.mosoftvn.chatbox.Service.BotReplyService;
+import com.mosoftvn.chatbox.Service.ChatHistoryService;
+import com.mosoftvn.chatbox.Service.ChatMessageWriter;
 import com.mosoftvn.chatbox.Service.CloudinaryService;
-import com.mosoftvn.chatbox.Service.GeminiService;
-import com.mosoftvn.chatbox.Service.GroupService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.messaging.handler.annotation.MessageMapping;
@@ -18,8 +17,9 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.security.Principal;
+import java.time.LocalDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
 
 
 @Controller
@@ -33,22 +33,26 @@ public class ChatController {
     private ChatMessageRepository chatMessageRepository;
 
     @Autowired
-    private GeminiService geminiService;
+    private BotReplyService botReplyService;
 
     @Autowired
     private CloudinaryService cloudinaryService;
 
-    @Autowired private GroupService groupService;
-    @Autowired private ChatGroupRepository chatGroupRepository;
+    @Autowired private ChatHistoryService chatHistoryService;
+
+    @Autowired private ChatMessageWriter chatMessageWriter;
 
     // --- XỬ LÝ CHAT 1-1 VÀ BOT ---
     @MessageMapping("/chat")
-    public void processMessage(@Payload ChatMessage chatMessage) {
+    public void processMessage(@Payload ChatMessage chatMessage, Principal principal) {
+        // Người gửi lấy từ session đã xác thực, không tin senderId client tự gửi lên
+        chatMessage.setSenderId(principal.getName());
+
         // 1. In Log để kiểm tra xem Frontend có gửi 2 lần không?
         System.out.println("LOG: Nhận tin nhắn từ " + chatMessage.getSenderId() + ": " + chatMessage.getContent());
 
-        // 2. Lưu tin nhắn người dùng gửi
-        ChatMessage savedMsg = chatMessageRepository.save(chatMessage);
+        // 2. Lưu tin nhắn người dùng gửi (chế độ write-behind: chỉ xếp hàng, Mongo ghi theo lô ở luồng nền)
+        ChatMessage savedMsg = chatMessageWriter.persist(chatMessage);
 
         // 3. Gửi cho người nhận (Chỉ gửi nếu người nhận KHÔNG PHẢI là bot)
         // Vì "bot" không phải là user online, gửi cho nó là vô nghĩa
@@ -64,42 +68,15 @@ public class ChatController {
         if ("bot".equalsIgnoreCase(chatMessage.getRecipientId())
                 && !"bot".equalsIgnoreCase(chatMessage.getSenderId())) {
 
-            // Chạy trong luồng riêng (tùy chọn) hoặc chạy trực tiếp
-            // Để tránh block socket nếu AI trả lời chậm
-            new Thread(() -> {
-                String aiReply;
-
-                // Kiểm tra có ảnh không
-                if (chatMessage.getFileUrl() != null && !chatMessage.getFileUrl().isEmpty()) {
-                    System.out.println("LOG: --> Bot đang phân tích ảnh...");
-                    aiReply = geminiService.callGeminiWithImage(chatMessage.getContent(), chatMessage.getFileUrl());
-                } else {
-                    System.out.println("LOG: --> Bot đang suy nghĩ...");
-                    aiReply = geminiService.callGemini(chatMessage.getContent());
-                }
-
-                // Tạo tin nhắn hồi đáp
-                ChatMessage botMsg = new ChatMessage();
-                botMsg.setSenderId("bot");
-                botMsg.setRecipientId(chatMessage.getSenderId());
-                botMsg.setContent(aiReply);
-                botMsg.setTimestamp(java.time.LocalDateTime.now());
-
-                // Lưu và Gửi trả về cho người hỏi
-                chatMessageRepository.save(botMsg);
-                messagingTemplate.convertAndSendToUser(
-                        botMsg.getRecipientId(),
-                        "/queue/messages",
-                        botMsg
-                );
-                System.out.println("LOG: --> Bot đã trả lời xong.");
-            }).start();
+            // Đưa vào hàng đợi của bot (số luồng có giới hạn) để không block socket nếu AI trả lời chậm
+            botReplyService.submit(savedMsg);
         }
     }
 
     // --- XỬ LÝ CHAT NHÓM ---
     @MessageMapping("/chat.group")
-    public void sendGroupMessage(@Payload ChatMessage message) {
+    public void sendGroupMessage(@Payload ChatMessage message, Principal principal) {
+        message.setSenderId(principal.getName());
 
         String rawGroupId = message.getRecipientId().replace("GROUP_", "");
         message.setRecipientId(rawGroupId);
@@ -107,7 +84,7 @@ public class ChatController {
         // B. Gán Type cứng là GROUP (để sau này lọc cho dễ)
         message.setType("GROUP");
         // Lưu và gửi ngay
-        chatMessageRepository.save(message);
+        chatMessageWriter.persist(message);
         messagingTemplate.convertAndSend("/topic/group/" + message.getRecipientId(), message);
     }
 
@@ -137,75 +114,56 @@ public class ChatController {
     public ResponseEntity<List<ChatMessage>> getMyMessageHistory() {
         String currentUser = Objects.requireNonNull(SecurityContextHolder.getContext().getAuthentication()).getName();
 
-        // 1. Lấy tin nhắn cá nhân (1-1)
-        List<ChatMessage> personalMsgs = chatMessageRepository.findBySenderIdOrRecipientIdOrderByTimestampAsc(currentUser, currentUser);
+        // 1-1 + nhóm (đã áp dụng luật xem) gộp trong 1 truy vấn, Mongo sắp xếp sẵn theo thời gian
+        List<ChatMessage> finalHistory = chatHistoryService.getFullHistory(currentUser);
 
-        List<GroupDetailDTO> myGroups = groupService.getMyGroups(currentUser);
-        List<String> groupIds = myGroups.stream().map(g -> String.valueOf(g.getId())).collect(Collectors.toList());
+        return ResponseEntity.ok(finalHistory);
+    }
 
-        // Nếu không thêm được, tạm thời dùng findByRecipientId cho từng nhóm (hơi chậm)
-        List<ChatMessage> groupMsgs = new ArrayList<>();
-        if (!groupIds.isEmpty()) {
-            // Cách tốt nhất: chatMessageRepository.findByRecipientIdIn(groupIds);
-            // Cách tạm thời (nếu lười sửa Repo):
-            for (String gid : groupIds) {
-                // groupMsgs.addAll(chatMessageRepository.findByRecipientId(gid));
-            }
-            // List<ChatMessage> findByRecipientIdIn(List<String> recipientIds);
-            try {
-                groupMsgs.addAll(chatMessageRepository.findByRecipientIdIn(groupIds));
-            } catch (Exception e) {
-                System.err.println("Chưa có hàm findByRecipientIdIn trong Repo, vui lòng thêm vào!");
-            }
-        }
+    // API lịch sử theo TỪNG hội thoại, phân trang keyset
+    // - Không có cursor: trang mới nhất
+    // - ?before=<msgId>: cuộn lên xem tin cũ hơn
+    // - ?after=<msgId>: đồng bộ khi online lại, chỉ lấy các tin client còn thiếu
+    @GetMapping("/history/{conversationId}")
+    @ResponseBody
+    public ResponseEntity<?> getConversationHistory(@PathVariable String conversationId,
+                                                    @RequestParam(required = false) String before,
+                                                    @RequestParam(required = false) String after,
+                                                    @RequestParam(defaultValue = "" + ChatHistoryService.DEFAULT_PAGE_SIZE) int size) {
+        String currentUser = Objects.requireNonNull(SecurityContextHolder.getContext().getAuthentication()).getName();
 
-        // 3. LỌC TIN NHẮN NHÓM THEO NGÀY (View Rules)
-        // Lấy Map luật xem của user
-        Map<String, Date> groupViewRules = new HashMap<>();
-        for (GroupDetailDTO gDTO : myGroups) {
-            ChatGroup g = chatGroupRepository.findById(gDTO.getId()).orElse(null);
-            if (g != null && g.getMemberViewRules().containsKey(currentUser)) {
-                groupViewRules.put(String.valueOf(g.getId()), g.getMemberViewRules().get(currentUser));
-            }
+        if (before != null && after != null) {
+            return ResponseEntity.badRequest().body("Chỉ dùng before hoặc after, không dùng cả hai");
         }
 
-        groupMsgs.removeIf(msg -> {
-            String groupId = msg.getRecipientId();
-            if (groupViewRules.containsKey(groupId)) {
-                Date allowedDate = groupViewRules.get(groupId);
-                // Convert LocalDateTime của msg sang Date để so sánh
-                Date msgDate = java.sql.Timestamp.valueOf(msg.getTimestamp());
-                return msgDate.before(allowedDate); // Nếu tin nhắn cũ hơn ngày cho phép -> XÓA
-            }
-            return false;
-        });
-
-        // 4. Gộp và Sắp xếp lại
-        List<ChatMessage> finalHistory = new ArrayList<>();
-        finalHistory.addAll(personalMsgs);
-        finalHistory.addAll(groupMsgs);
-
-        finalHistory.sort(Comparator.comparing(ChatMessage::getTimestamp));
+        LocalDateTime viewFrom = chatHistoryService.resolveViewFrom(currentUser, conversationId);
+        if (viewFrom == null) {
+            return ResponseEntity.status(403).body("Bạn không thuộc hội thoại này");
+        }
 
-        return ResponseEntity.ok(finalHistory);
+        try {
+            ChatHistoryPage page = chatHistoryService.getPage(conversationId, viewFrom, before, after, size);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
     }
 
     // 1. API THU HỒI (Sửa lại để bắn socket chuẩn)
     @PostMapping("/{msgId}/revoke")
     public ResponseEntity<?> revokeMessage(@PathVariable String msgId) {
         String currentUser = SecurityContextHolder.getContext().getAuthentication().getName();
-        ChatMessage msg = chatMessageRepository.findById(msgId).orElseThrow();
 
-        if (!msg.getSenderId().equals(currentUser)) return ResponseEntity.status(403).body("Không chính chủ");
+        // Điều kiện chính chủ nằm luôn trong câu update -> 1 lệnh duy nhất
+        ChatMessage msg = chatMessageRepository.revokeMessage(msgId, currentUser, "Tin nhắn đã bị thu hồi");
+        if (msg == null) return notFoundOrForbidden(msgId);
 
-        msg.setRevoked(true);
-        msg.setContent("Tin nhắn đã bị thu hồi");
-        msg.setFileUrl(null);
-        msg.setFileName(null); // Xóa luôn thông tin file
-        chatMessageRepository.save(msg);
-
-        // Bắn vào /topic/feed
-        messagingTemplate.convertAndSend("/topic/feed", Optional.of(Map.of("type", "MSG_UPDATE", "msg", msg)));
+        Map<String, Object> delta = new HashMap<>();
+        delta.put("revoked", true);
+        delta.put("content", msg.getContent());
+        delta.put("fileUrl", null);
+        delta.put("fileName", null);
+        publishUpdate(msg, delta);
 
         return ResponseEntity.ok(msg);
     }
@@ -213,45 +171,24 @@ public class ChatController {
     // 2. API GHIM (Sửa lại bắn socket)
     @PostMapping("/{msgId}/pin")
     public ResponseEntity<?> pinMessage(@PathVariable String msgId) {
-        ChatMessage msg = chatMessageRepository.findById(msgId).orElseThrow();
-
-        // Chỉ chạy logic này nếu ta đang chuẩn bị GHIM (từ chưa ghim -> ghim)
-        if (!msg.isPinned()) {
-            List<ChatMessage> oldPinnedMessages = new java.util.ArrayList<>();
-
-            // A. Nếu là tin nhắn NHÓM
-            // (Kiểm tra bằng type hoặc ID nhóm)
-            if ("GROUP".equals(msg.getType()) || msg.getRecipientId().startsWith("GROUP_") || msg.getRecipientId().matches("\\d+")) {
-                oldPinnedMessages.addAll(chatMessageRepository.findByRecipientIdAndIsPinnedTrue(msg.getRecipientId()));
-            }
-            // B. Nếu là tin nhắn 1-1 (Cá nhân)
-            else {
-                // Tìm tin ghim chiều đi (A -> B)
-                oldPinnedMessages.addAll(chatMessageRepository.findBySenderIdAndRecipientIdAndIsPinnedTrue(msg.getSenderId(), msg.getRecipientId()));
-                // Tìm tin ghim chiều về (B -> A)
-                oldPinnedMessages.addAll(chatMessageRepository.findBySenderIdAndRecipientIdAndIsPinnedTrue(msg.getRecipientId(), msg.getSenderId()));
-            }
-
-            // Thực hiện bỏ ghim và bắn socket cập nhật ngay
-            for (ChatMessage oldMsg : oldPinnedMessages) {
-                // Trừ tin nhắn hiện tại ra (đề phòng)
-                if (!oldMsg.getId().equals(msg.getId())) {
-                    oldMsg.setPinned(false);
-                    chatMessageRepository.save(oldMsg);
-
-                    // Bắn Socket báo cho Frontend biết tin này đã bị bỏ ghim -> Mất icon ghim
-                    messagingTemplate.convertAndSend("/topic/feed", Optional.of(Map.of("type", "MSG_UPDATE", "msg", oldMsg)));
-                }
+        // Đảo trạng thái ghim ngay trên Mongo
+        ChatMessage msg = chatMessageRepository.togglePinned(msgId);
+        if (msg == null) throw new RuntimeException("Không tìm thấy tin nhắn với ID: " + msgId);
+
+        // Vừa GHIM -> mỗi hội thoại chỉ giữ 1 tin ghim, bỏ ghim các tin khác trong 1 lệnh updateMulti
+        if (msg.isPinned()) {
+            String conversationId = msg.getConversationId() != null ? msg.getConversationId() : msg.resolveConversationId();
+            for (String oldId : chatMessageRepository.unpinOthers(conversationId, msg.getId())) {
+                // Bắn Socket báo cho Frontend biết tin này đã bị bỏ ghim -> Mất icon ghim
+                ChatMessage oldMsg = new ChatMessage(msg.getSenderId(), msg.getRecipientId(), null);
+                oldMsg.setId(oldId);
+                oldMsg.setType(msg.getType());
+                publishUpdate(oldMsg, Map.of("pinned", false));
             }
         }
-        // -------------------------------------
-
-        // Toggle trạng thái của tin nhắn hiện tại
-        msg.setPinned(!msg.isPinned());
-        chatMessageRepository.save(msg);
 
         // Bắn Socket báo tin này đã được ghim/bỏ ghim
-        messagingTemplate.convertAndSend("/topic/feed", Optional.of(Map.of("type", "MSG_UPDATE", "msg", msg)));
+        publishUpdate(msg, Map.of("pinned", msg.isPinned()));
 
         return ResponseEntity.ok(msg);
     }
@@ -261,39 +198,11 @@ public class ChatController {
     public ResponseEntity<?> editMessage(@PathVariable String msgId, @RequestBody Map<String, String> body) {
         String currentUser = SecurityContextHolder.getContext().getAuthentication().getName();
 
-        // 🟢 1. IN LOG ĐỂ KIỂM TRA (Xem Frontend gửi lên cái gì)
-        System.out.println("DEBUG EDIT: Đang sửa tin nhắn có ID = " + msgId);
+        // Chỉ sửa được tin của chính mình (điều kiện nằm trong câu update)
+        ChatMessage msg = chatMessageRepository.editContent(msgId, currentUser, body.get("content"));
+        if (msg == null) return notFoundOrForbidden(msgId);
 
-        // 🟢 2. ÉP KIỂU ID (Quan trọng nếu dùng PostgreSQL)
-        // Nếu ID trong database của bạn là Long (số), hãy mở comment dòng dưới:
-        // Long idLong = Long.parseLong(msgId);
-
-        // Nếu bạn dùng MongoDB (ID là String) thì giữ nguyên 'msgId'
-        // Nếu dùng PostgreSQL thì thay 'msgId' bằng 'idLong' ở dòng dưới:
-        ChatMessage msg = chatMessageRepository.findById(msgId)
-                .orElseThrow(() -> new RuntimeException("Không tìm thấy tin nhắn với ID: " + msgId));
-
-        // Check quyền chính chủ
-        if (!msg.getSenderId().equals(currentUser)) {
-            return ResponseEntity.status(403).body("Không chính chủ");
-        }
-
-        msg.setContent(body.get("content"));
-        msg.setEdited(true);
-        chatMessageRepository.save(msg);
-
-        // Gửi socket cập nhật (như code trước)
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("type", "MSG_UPDATE");
-        payload.put("msg", msg);
-
-        if ("GROUP".equals(msg.getType()) || (msg.getRecipientId() != null && msg.getRecipientId().startsWith("GROUP_"))) {
-            String groupId = msg.getRecipientId().replace("GROUP_", "");
-            messagingTemplate.convertAndSend("/topic/group/" + groupId, (Object) payload);
-        } else {
-            messagingTemplate.convertAndSendToUser(msg.getRecipientId(), "/queue/messages", payload);
-            messagingTemplate.convertAndSendToUser(currentUser, "/queue/messages", payload);
-        }
+        publishUpdate(msg, Map.of("content", msg.getContent(), "edited", true));
 
         return ResponseEntity.ok(msg);
     }
@@ -370,28 +279,39 @@ public class ChatController {
         String currentUser = SecurityContextHolder.getContext().getAuthentication().getName();
         String emoji = body.get("emoji");
 
-        ChatMessage msg = chatMessageRepository.findById(msgId).orElseThrow();
+        // Toggle trên Mongo: thả lại đúng icon cũ = gỡ, icon khác = thay. Chỉ đụng tới reactions.<user>
+        ChatMessage msg = chatMessageRepository.toggleReaction(msgId, currentUser, emoji);
+        if (msg == null) throw new RuntimeException("Không tìm thấy tin nhắn với ID: " + msgId);
 
-        // Logic Toggle:
-        if (msg.getReactions() == null) {
-            msg.setReactions(new java.util.HashMap<>());
-        }
+        // Bắn Socket cập nhật ngay lập tức (chỉ gửi cho người trong hội thoại)
+        publishUpdate(msg, Map.of("reactions", msg.getReactions() != null ? msg.getReactions() : Map.of()));
 
-        String currentReaction = msg.getReactions().get(currentUser);
+        return ResponseEntity.ok(msg);
+    }
 
-        if (currentReaction != null && currentReaction.equals(emoji)) {
-            // Nếu đã thả icon này rồi -> Gỡ bỏ (Unlike)
-            msg.getReactions().remove(currentUser);
-        } else {
-            // Nếu chưa thả hoặc thả icon khác -> Cập nhật
-            msg.getReactions().put(currentUser, emoji);
+    // Update không khớp: phân biệt tin không tồn tại với không chính chủ
+    private ResponseEntity<?> notFoundOrForbidden(String msgId) {
+        if (!chatMessageRepository.existsById(msgId)) {
+            throw new RuntimeException("Không tìm thấy tin nhắn với ID: " + msgId);
         }
+        return ResponseEntity.status(403).body("Không chính chủ");
+    }
 
-        chatMessageRepository.save(msg);
-
-        // Bắn Socket cập nhật ngay lập tức (Dùng kênh /topic/feed)
-        messagingTemplate.convertAndSend("/topic/feed", Optional.of(Map.of("type", "MSG_UPDATE", "msg", msg)));
+    // Gửi cập nhật tin nhắn CHỈ cho người trong hội thoại (không bắn /topic/feed cho tất cả mọi người).
+    // Payload gọn: { type: MSG_UPDATE, msg: { id, <các trường thay đổi> } }, Frontend gộp theo id
+    private void publishUpdate(ChatMessage msg, Map<String, Object> changes) {
+        Map<String, Object> delta = new HashMap<>(changes);
+        delta.put("id", msg.getId());
+        Object payload = Map.of("type", "MSG_UPDATE", "msg", delta);
 
-        return ResponseEntity.ok(msg);
+        if ("GROUP".equals(msg.getType())) {
+            String groupId = msg.getRecipientId().replace(ChatMessage.GROUP_PREFIX, "");
+            messagingTemplate.convertAndSend("/topic/group/" + groupId, payload);
+        } else {
+            messagingTemplate.convertAndSendToUser(msg.getSenderId(), "/queue/messages", payload);
+            if (!msg.getSenderId().equals(msg.getRecipientId())) {
+                messagingTemplate.convertAndSendToUser(msg.getRecipientId(), "/queue/messages", payload);
+            }
+        }
     }
 }
\ No newline at end of file
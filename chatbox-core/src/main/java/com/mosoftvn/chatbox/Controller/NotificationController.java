@@ -1,6 +1,7 @@
 package com.mosoftvn.chatbox.Controller;
 
 
+import com.mosoftvn.chatbox.DTO.NotificationPage;
 import com.mosoftvn.chatbox.Entity.Notification;
 import com.mosoftvn.chatbox.Service.NotificationService;
 import jakarta.transaction.Transactional;
@@ -12,6 +13,7 @@ import org.springframework.web.bind.annotation.*;
 
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/notifications")
@@ -24,6 +26,21 @@ public class NotificationController {
         return notificationService.getUserNotifications(username);
     }
 
+    // Hộp thư phân trang: /api/notifications/page?size=20&before=<nextCursor của trang trước>
+    @GetMapping("/page")
+    public NotificationPage getInbox(@RequestParam(required = false) String before,
+                                     @RequestParam(defaultValue = "20") int size) {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        return notificationService.getInbox(username, before, size);
+    }
+
+    // Số thông báo chưa đọc (cho chấm đỏ trên chuông)
+    @GetMapping("/unread-count")
+    public Map<String, Long> getUnreadCount() {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        return Map.of("count", notificationService.getUnreadCount(username));
+    }
+
     @PutMapping("/read")
     public void markRead() {
         String username = SecurityContextHolder.getContext().getAuthentication().getName();
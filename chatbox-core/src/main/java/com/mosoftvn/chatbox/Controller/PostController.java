@@ -1,5 +1,7 @@
 package com.mosoftvn.chatbox.Controller;
 
+import com.mosoftvn.chatbox.DTO.CommentPage;
+import com.mosoftvn.chatbox.DTO.FeedPage;
 import com.mosoftvn.chatbox.DTO.PostResponse;
 import com.mosoftvn.chatbox.Entity.Post;
 import com.mosoftvn.chatbox.Repository.PostRepository;
@@ -47,12 +49,29 @@ public class PostController {
         return postService.getAllPosts(username);
     }
 
+    // Newsfeed phân trang: /api/posts/feed?size=10&before=<nextCursor của trang trước>&author=<username (tùy chọn)>
+    @GetMapping("/feed")
+    public FeedPage getFeed(@RequestParam(required = false) String before,
+                            @RequestParam(required = false) String author,
+                            @RequestParam(defaultValue = "10") int size) {
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        return postService.getFeed(username, author, before, size);
+    }
+
     @PostMapping("/{postId}/like")
     public void likePost(@PathVariable Long postId) {
         String username = SecurityContextHolder.getContext().getAuthentication().getName();
         postService.toggleLike(postId, username);
     }
 
+    // Bình luận phân trang: /api/posts/{postId}/comments?size=20&before=<nextCursor của trang trước>
+    @GetMapping("/{postId}/comments")
+    public CommentPage getComments(@PathVariable Long postId,
+                                   @RequestParam(required = false) String before,
+                                   @RequestParam(defaultValue = "20") int size) {
+        return postService.getComments(postId, before, size);
+    }
+
     @PostMapping("/{postId}/comments")
     public void addComment(@PathVariable Long postId, @RequestBody Map<String, String> body) {
         String username = SecurityContextHolder.getContext().getAuthentication().getName();
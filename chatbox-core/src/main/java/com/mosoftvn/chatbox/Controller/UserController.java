@@ -1,11 +1,13 @@
 package com.mosoftvn.chatbox.Controller;
 
+import com.mosoftvn.chatbox.DTO.UserDirectoryPage;
 import com.mosoftvn.chatbox.DTO.UserUpdateDTO;
 import com.mosoftvn.chatbox.DTO.UserSummary;
 import com.mosoftvn.chatbox.Entity.User;
 import com.mosoftvn.chatbox.Repository.TransactionRepository;
 import com.mosoftvn.chatbox.Repository.UserRepository;
 import com.mosoftvn.chatbox.Service.UserService;
+import com.mosoftvn.chatbox.Service.UserSnapshotCache;
 import com.mosoftvn.chatbox.Service.CloudinaryService; // Nhớ import Service này
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
@@ -27,6 +29,9 @@ public class UserController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private UserSnapshotCache userSnapshotCache;
+
     @Autowired
     private UserRepository userRepository;
 
@@ -48,22 +53,22 @@ public class UserController {
         return userService.getAllUsersExcept(currentUsername);
     }
 
+    // Danh bạ phân trang + tìm theo tiền tố: /api/users/directory?q=ngu&page=0&size=30
+    @GetMapping("/directory")
+    public UserDirectoryPage getDirectory(@RequestParam(required = false) String q,
+                                          @RequestParam(defaultValue = "0") int page,
+                                          @RequestParam(defaultValue = "30") int size) {
+        String currentUsername = SecurityContextHolder.getContext().getAuthentication().getName();
+        return userService.getDirectory(currentUsername, q, page, size);
+    }
+
     @PostMapping("/status")
     public void changeStatus(@RequestBody Map<String, String> body) {
         String newStatus = body.get("status");
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         String username = auth.getName();
 
-        userRepository.findByUsername(username).ifPresent(user -> {
-            user.setStatus(newStatus);
-            userRepository.save(user);
-
-            Map<String, String> updateMsg = Map.of(
-                    "username", username,
-                    "status", newStatus
-            );
-            messagingTemplate.convertAndSend("/topic/status", updateMsg);
-        });
+        userService.updateUserStatus(username, newStatus);
     }
 
     // --- API QUAN TRỌNG NHẤT: UPLOAD AVATAR ---
@@ -81,6 +86,7 @@ public class UserController {
             // 3. Lưu Link ảnh vào Database
             user.setAvatar(fileUrl);
             userRepository.save(user);
+            userSnapshotCache.invalidate(username);
 
             // 4. Bắn Socket báo cập nhật
             Map<String, Object> updateMsg = Map.of(
@@ -118,6 +124,7 @@ public class UserController {
         user.setPosition(request.getPosition());
 
         userService.save(user);
+        userSnapshotCache.invalidate(username);
 
         Map<String, Object> updatePayload = new HashMap<>();
         updatePayload.put("type", "USER_UPDATE");
@@ -0,0 +1,24 @@
+package com.mosoftvn.chatbox.DTO;
+
+import com.mosoftvn.chatbox.Document.ChatMessage;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Một trang lịch sử chat của 1 hội thoại (tin nhắn luôn xếp cũ -> mới)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatHistoryPage {
+    private String conversationId;
+    private List<ChatMessage> messages;
+
+    // Cursor cho lần gọi tiếp: ?before=oldestId (cuộn lên) hoặc ?after=newestId (đồng bộ tin mới)
+    private String oldestId;
+    private String newestId;
+
+    // Còn tin nhắn theo chiều vừa lấy hay không
+    private boolean hasMore;
+}
@@ -0,0 +1,17 @@
+package com.mosoftvn.chatbox.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Một trang bình luận của 1 bài (GET /api/posts/{postId}/comments)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CommentPage {
+    private List<PostResponse.CommentDTO> comments; // Cũ -> mới trong trang (ghép vào đầu danh sách đang hiện)
+    private String nextCursor; // Truyền vào ?before= để lấy các bình luận cũ hơn (null = hết)
+    private boolean hasNext;
+}
@@ -0,0 +1,17 @@
+package com.mosoftvn.chatbox.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Một trang newsfeed (dùng cho GET /api/posts/feed)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FeedPage {
+    private List<PostResponse> posts;
+    private String nextCursor; // Truyền lại vào ?before= để lấy trang tiếp (null = hết)
+    private boolean hasNext;
+}
@@ -0,0 +1,31 @@
+package com.mosoftvn.chatbox.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+// Cursor phân trang keyset theo (createdAt, id), dạng chuỗi "<createdAt ISO>_<id>"
+// Dùng chung cho newsfeed, bình luận, hộp thư thông báo
+@Getter
+@AllArgsConstructor
+public class KeysetCursor {
+    private final LocalDateTime createdAt;
+    private final Long id;
+
+    public static String encode(LocalDateTime createdAt, Long id) {
+        return createdAt + "_" + id;
+    }
+
+    public static KeysetCursor parse(String cursor) {
+        int sep = cursor.lastIndexOf('_');
+        if (sep <= 0) throw new RuntimeException("Cursor không hợp lệ: " + cursor);
+        try {
+            return new KeysetCursor(LocalDateTime.parse(cursor.substring(0, sep)),
+                    Long.parseLong(cursor.substring(sep + 1)));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new RuntimeException("Cursor không hợp lệ: " + cursor);
+        }
+    }
+}
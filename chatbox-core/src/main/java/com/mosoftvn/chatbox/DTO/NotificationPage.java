@@ -0,0 +1,18 @@
+package com.mosoftvn.chatbox.DTO;
+
+import com.mosoftvn.chatbox.Entity.Notification;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Một trang hộp thư thông báo (GET /api/notifications/page), mới nhất trước
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotificationPage {
+    private List<Notification> notifications;
+    private String nextCursor; // Truyền vào ?before= để lấy trang cũ hơn (null = hết)
+    private boolean hasNext;
+}
@@ -28,10 +28,13 @@ public class PostResponse {
     private String backgroundTheme;
 
     // Thông tin tương tác MỚI
-    private Map<String, String> reactions;
+    private Map<String, String> reactions; // username -> loại cảm xúc (chỉ có ở trang chi tiết, feed không nạp)
     private int likeCount;
     private boolean likedByMe;
-    private List<CommentDTO> comments; // Danh sách comment
+    private Map<String, Long> reactionCounts; // loại cảm xúc -> số lượng
+    private String myReaction; // Cảm xúc của user hiện tại (null = chưa thả)
+    private long commentCount;
+    private List<CommentDTO> comments; // Danh sách comment (feed: chỉ vài bình luận mới nhất)
 
 
 
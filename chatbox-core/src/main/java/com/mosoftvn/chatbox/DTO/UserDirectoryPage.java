@@ -0,0 +1,18 @@
+package com.mosoftvn.chatbox.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Một trang danh bạ user (dùng cho GET /api/users/directory)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserDirectoryPage {
+    private List<UserSummary> users;
+    private int page;
+    private int size;
+    private boolean hasNext; // Còn trang sau (không đếm tổng để khỏi COUNT(*) cả bảng users)
+}
@@ -0,0 +1,9 @@
+package com.mosoftvn.chatbox.DTO;
+
+// Projection cho danh bạ: Hibernate chỉ SELECT 4 cột này (không nạp cả entity User + role)
+public interface UserDirectoryView {
+    Long getId();
+    String getUsername();
+    String getFullName();
+    String getAvatar();
+}
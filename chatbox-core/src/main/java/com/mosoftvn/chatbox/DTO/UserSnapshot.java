@@ -0,0 +1,18 @@
+package com.mosoftvn.chatbox.DTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Thông tin gọn của 1 user để dùng lại giữa các request (không kèm password, số dư...)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserSnapshot {
+    private Long id;
+    private String username;
+    private String role;
+    private boolean enabled;
+    private String avatar;
+    private String fullName;
+}
@@ -3,6 +3,8 @@ package com.mosoftvn.chatbox.Document;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
@@ -12,8 +14,17 @@ import java.util.Map;
 @Setter
 @Getter
 @Document(collection = "chat_messages")
+@CompoundIndexes({
+        // Phân trang keyset theo từng cuộc hội thoại (mới nhất trước) + lọc luật xem của nhóm
+        @CompoundIndex(name = "conversation_timestamp_id", def = "{'conversationId': 1, 'timestamp': -1, '_id': -1}"),
+        // 2 nhánh $or của lịch sử chat 1-1 (user là người gửi hoặc người nhận)
+        @CompoundIndex(name = "sender_timestamp", def = "{'senderId': 1, 'timestamp': 1}"),
+        @CompoundIndex(name = "recipient_timestamp", def = "{'recipientId': 1, 'timestamp': 1}")
+})
 public class ChatMessage {
 
+    public static final String GROUP_PREFIX = "GROUP_";
+
     // Getter & Setter thủ công
     @Id
     private String id; // MongoDB dùng ID dạng String
@@ -29,6 +40,9 @@ public class ChatMessage {
 
     private String type;
 
+    // Khóa chuẩn của cuộc hội thoại: "GROUP_<id>" cho nhóm, "userA:userB" (sắp xếp) cho chat 1-1
+    private String conversationId;
+
     // Trong Entity ChatMessage
     private boolean isEdited = false;
     private boolean isRevoked = false; // Thu hồi
@@ -46,4 +60,21 @@ public class ChatMessage {
         this.timestamp = LocalDateTime.now();
     }
 
+    // Khóa hội thoại 1-1: không phụ thuộc chiều gửi (A->B và B->A chung một khóa)
+    public static String directConversationId(String userA, String userB) {
+        return userA.compareTo(userB) <= 0 ? userA + ":" + userB : userB + ":" + userA;
+    }
+
+    public static String groupConversationId(String groupId) {
+        return GROUP_PREFIX + groupId.replace(GROUP_PREFIX, "");
+    }
+
+    // Tính khóa hội thoại từ người gửi/người nhận/loại tin nhắn
+    public String resolveConversationId() {
+        if ("GROUP".equals(type)) {
+            return groupConversationId(recipientId);
+        }
+        return directConversationId(senderId, recipientId);
+    }
+
 }
\ No newline at end of file
@@ -5,7 +5,10 @@ import lombok.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "comments")
+@Table(name = "comments", indexes = {
+        // Lấy K bình luận mới nhất / phân trang bình luận theo từng bài
+        @Index(name = "idx_comments_post_created_id", columnList = "post_id, created_at, id")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -25,7 +28,8 @@ public class Comment {
     @JoinColumn(name = "user_id")
     private User user; // Người bình luận
 
-    @ManyToOne
+    // LAZY: đọc bình luận không cần nạp lại bài viết (và người đăng bài) cho từng dòng
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "post_id")
     private Post post; // Bình luận cho bài nào
 
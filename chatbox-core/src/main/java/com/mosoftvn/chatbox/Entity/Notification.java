@@ -5,7 +5,15 @@ import lombok.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "notifications")
+@Table(name = "notifications", indexes = {
+        // Hộp thư phân trang keyset + đếm chưa đọc (chỉ quét phần chưa đọc của 1 người)
+        @Index(name = "idx_notifications_recipient_created_id", columnList = "recipient, created_at, id"),
+        @Index(name = "idx_notifications_recipient_read", columnList = "recipient, is_read"),
+        // Job dọn thông báo đã đọc quá hạn
+        @Index(name = "idx_notifications_read_created", columnList = "is_read, created_at"),
+        // Tìm thông báo gộp đang mở theo (người nhận, loại, bài viết)
+        @Index(name = "idx_notifications_recipient_type_post", columnList = "recipient, type, related_post_id")
+})
 @Getter @Setter @NoArgsConstructor @AllArgsConstructor @Builder
 public class Notification {
     @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -20,5 +28,13 @@ public class Notification {
     private Long relatedPostId; // ID bài viết liên quan
 
     private boolean isRead = false; // Đã đọc chưa
+
+    // --- GỘP THÔNG BÁO ("A, B và 12 người khác đã thích bài viết của bạn") ---
+    // Loại hành động (LIKE / COMMENT / REACTION); null = thông báo thường, không gộp
+    private String type;
+    // Số người (khác nhau) đã gộp vào thông báo này
+    private Integer actorCount;
+    // Username những người gần nhất, mới nhất trước, cách nhau bởi dấu phẩy (tối đa vài người)
+    private String latestActors;
     private LocalDateTime createdAt = LocalDateTime.now();
 }
@@ -7,7 +7,11 @@ import java.time.LocalDateTime;
 import java.util.*;
 
 @Entity
-@Table(name = "posts")
+@Table(name = "posts", indexes = {
+        // Newsfeed keyset (mới nhất trước) và trang cá nhân
+        @Index(name = "idx_posts_created_id", columnList = "created_at, id"),
+        @Index(name = "idx_posts_user_created_id", columnList = "user_id, created_at, id")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -44,17 +48,62 @@ public class Post {
     private Set<Long> likedUserIds = new HashSet<>();
 
     // Cấu hình để lưu Map<String, String> vào bảng phụ "post_reactions"
-    @ElementCollection(fetch = FetchType.EAGER)
+    // LAZY: chỉ trang chi tiết mới cần danh sách người thả, feed đọc các cột đếm bên dưới
+    @ElementCollection(fetch = FetchType.LAZY)
     @CollectionTable(name = "post_reactions", joinColumns = @JoinColumn(name = "post_id"))
     @MapKeyColumn(name = "username") // Cột lưu Key (Tên người dùng)
     @Column(name = "reaction_type")  // Cột lưu Value (Loại cảm xúc)
     private Map<String, String> reactions = new HashMap<>();
 
-    // Tạo hàm ảo để lấy số lượng like từ reactions
+    // --- BỘ ĐẾM (cập nhật bằng UPDATE ... = x + 1 trong PostRepository, không load collection) ---
+    // Cho phép NULL để thêm cột vào bảng cũ được; bài cũ được đếm bù lúc khởi động (PostService.backfillCounters)
+    // updatable = false: save(post) (VD: sửa nội dung) không ghi đè bộ đếm bằng giá trị cũ lúc load
+    @Column(name = "reaction_like_count", updatable = false)
+    private Integer reactionLikeCount;
+
+    @Column(name = "reaction_love_count", updatable = false)
+    private Integer reactionLoveCount;
+
+    @Column(name = "reaction_haha_count", updatable = false)
+    private Integer reactionHahaCount;
+
+    @Column(name = "reaction_wow_count", updatable = false)
+    private Integer reactionWowCount;
+
+    @Column(name = "reaction_sad_count", updatable = false)
+    private Integer reactionSadCount;
+
+    @Column(name = "reaction_angry_count", updatable = false)
+    private Integer reactionAngryCount;
+
+    @Column(name = "comment_count", updatable = false)
+    private Integer commentCount;
+
+    // Các loại cảm xúc hợp lệ (khớp với các cột đếm ở trên)
+    public static final List<String> REACTION_TYPES = List.of("LIKE", "LOVE", "HAHA", "WOW", "SAD", "ANGRY");
+
+    // Số lượng theo loại (bỏ loại = 0)
+    @Transient
+    public Map<String, Long> getReactionCounts() {
+        Integer[] values = {reactionLikeCount, reactionLoveCount, reactionHahaCount,
+                reactionWowCount, reactionSadCount, reactionAngryCount};
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null && values[i] > 0) counts.put(REACTION_TYPES.get(i), values[i].longValue());
+        }
+        return counts;
+    }
+
+    // Tổng số cảm xúc (đọc từ cột đếm, không đụng tới map reactions)
     // @Transient nghĩa là không lưu cột này vào DB, chỉ tính toán lúc chạy
     @Transient
     public int getLikeCount() {
-        return reactions != null ? reactions.size() : 0;
+        return (int) getReactionCounts().values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    @Transient
+    public int getCommentCountOrZero() {
+        return commentCount != null ? commentCount : 0;
     }
 
     @Column(name = "background_theme")
@@ -64,5 +113,12 @@ public class Post {
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
+        if (reactionLikeCount == null) reactionLikeCount = 0;
+        if (reactionLoveCount == null) reactionLoveCount = 0;
+        if (reactionHahaCount == null) reactionHahaCount = 0;
+        if (reactionWowCount == null) reactionWowCount = 0;
+        if (reactionSadCount == null) reactionSadCount = 0;
+        if (reactionAngryCount == null) reactionAngryCount = 0;
+        if (commentCount == null) commentCount = 0;
     }
 }
\ No newline at end of file
@@ -1,10 +1,15 @@
 package com.mosoftvn.chatbox.Repository;
 
 import com.mosoftvn.chatbox.Document.ChatMessage;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.time.LocalDateTime;
 import java.util.List;
 
-public interface ChatMessageRepository extends MongoRepository<ChatMessage, String> {
+public interface ChatMessageRepository extends MongoRepository<ChatMessage, String>, ChatMessageRepositoryCustom {
 
     // Tìm tin nhắn giữa 2 người (A gửi B hoặc B gửi A)
 
@@ -16,4 +21,27 @@ public interface ChatMessageRepository extends MongoRepository<ChatMessage, Stri
 
     // 2. Tìm tin nhắn đang ghim trong Chat 1-1 (Cần check cả 2 chiều A->B và B->A)
     List<ChatMessage> findBySenderIdAndRecipientIdAndIsPinnedTrue(String senderId, String recipientId);
-}
\ No newline at end of file
+
+    // --- PHÂN TRANG KEYSET THEO HỘI THOẠI (dùng index conversationId + timestamp + _id) ---
+    // Cursor = (timestamp, _id) của tin nhắn mốc, _id dùng để phân định các tin trùng timestamp
+    // viewFrom: mốc thời gian sớm nhất user được xem (luật xem của nhóm), chat 1-1 truyền năm 1970
+
+    // Trang mới nhất (chưa có cursor)
+    @Query(value = "{ 'conversationId': ?0, 'timestamp': { $gte: ?1 } }",
+            sort = "{ 'timestamp': -1, '_id': -1 }")
+    List<ChatMessage> findLatestPage(String conversationId, LocalDateTime viewFrom, Pageable pageable);
+
+    // Cuộn lên: các tin CŨ hơn cursor (mới nhất trước)
+    @Query(value = "{ 'conversationId': ?0, 'timestamp': { $gte: ?3 }, " +
+            "$or: [ { 'timestamp': { $lt: ?1 } }, { 'timestamp': ?1, '_id': { $lt: ?2 } } ] }",
+            sort = "{ 'timestamp': -1, '_id': -1 }")
+    List<ChatMessage> findPageBefore(String conversationId, LocalDateTime cursorTime, ObjectId cursorId,
+                                     LocalDateTime viewFrom, Pageable pageable);
+
+    // Đồng bộ khi online lại: các tin MỚI hơn cursor (cũ nhất trước)
+    @Query(value = "{ 'conversationId': ?0, 'timestamp': { $gte: ?3 }, " +
+            "$or: [ { 'timestamp': { $gt: ?1 } }, { 'timestamp': ?1, '_id': { $gt: ?2 } } ] }",
+            sort = "{ 'timestamp': 1, '_id': 1 }")
+    List<ChatMessage> findPageAfter(String conversationId, LocalDateTime cursorTime, ObjectId cursorId,
+                                    LocalDateTime viewFrom, Pageable pageable);
+}
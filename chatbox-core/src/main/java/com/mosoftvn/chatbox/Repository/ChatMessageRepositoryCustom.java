@@ -0,0 +1,24 @@
+package com.mosoftvn.chatbox.Repository;
+
+import com.mosoftvn.chatbox.Document.ChatMessage;
+
+import java.util.List;
+
+// Các thao tác sửa 1 phần tin nhắn, chạy nguyên tử trên Mongo (không findById -> save cả document)
+public interface ChatMessageRepositoryCustom {
+
+    // Thu hồi tin nhắn của chính người gửi. Trả về null nếu không tìm thấy / không chính chủ
+    ChatMessage revokeMessage(String msgId, String senderId, String revokedContent);
+
+    // Sửa nội dung tin nhắn của chính người gửi. Trả về null nếu không tìm thấy / không chính chủ
+    ChatMessage editContent(String msgId, String senderId, String content);
+
+    // Thả / gỡ cảm xúc của 1 user (thả lại đúng icon cũ = gỡ). Trả về null nếu không tìm thấy
+    ChatMessage toggleReaction(String msgId, String username, String emoji);
+
+    // Đảo trạng thái ghim. Trả về null nếu không tìm thấy
+    ChatMessage togglePinned(String msgId);
+
+    // Bỏ ghim mọi tin khác trong hội thoại, trả về id các tin vừa bị bỏ ghim
+    List<String> unpinOthers(String conversationId, String keepMsgId);
+}
@@ -0,0 +1,89 @@
+package com.mosoftvn.chatbox.Repository;
+
+import com.mosoftvn.chatbox.Document.ChatMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.BooleanOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.List;
+
+// Mỗi thao tác là 1 lệnh update trên server Mongo ($set/$unset đúng trường cần đổi),
+// 2 người thả cảm xúc cùng lúc không còn ghi đè mất của nhau
+public class ChatMessageRepositoryCustomImpl implements ChatMessageRepositoryCustom {
+
+    private static final FindAndModifyOptions RETURN_NEW = FindAndModifyOptions.options().returnNew(true);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public ChatMessage revokeMessage(String msgId, String senderId, String revokedContent) {
+        Query query = Query.query(Criteria.where("_id").is(msgId).and("senderId").is(senderId));
+        Update update = new Update()
+                .set("isRevoked", true)
+                .set("content", revokedContent)
+                .unset("fileUrl")
+                .unset("fileName"); // Xóa luôn thông tin file
+        return mongoTemplate.findAndModify(query, update, RETURN_NEW, ChatMessage.class);
+    }
+
+    @Override
+    public ChatMessage editContent(String msgId, String senderId, String content) {
+        Query query = Query.query(Criteria.where("_id").is(msgId).and("senderId").is(senderId));
+        Update update = new Update().set("content", content).set("isEdited", true);
+        return mongoTemplate.findAndModify(query, update, RETURN_NEW, ChatMessage.class);
+    }
+
+    @Override
+    public ChatMessage toggleReaction(String msgId, String username, String emoji) {
+        String field = "reactions." + reactionKey(username);
+
+        // Đang thả đúng icon này -> gỡ (chỉ khớp khi giá trị hiện tại bằng emoji)
+        Query same = Query.query(Criteria.where("_id").is(msgId).and(field).is(emoji));
+        ChatMessage removed = mongoTemplate.findAndModify(same, new Update().unset(field), RETURN_NEW, ChatMessage.class);
+        if (removed != null) return removed;
+
+        // Chưa thả hoặc thả icon khác -> đặt icon mới
+        Query byId = Query.query(Criteria.where("_id").is(msgId));
+        return mongoTemplate.findAndModify(byId, new Update().set(field, emoji), RETURN_NEW, ChatMessage.class);
+    }
+
+    // username làm tên trường Mongo: "." sẽ tạo document lồng nhau, "$" đầu làm hỏng lệnh update.
+    // Từ chối như khi save() cả map trước đây (Spring không cho key chứa dấu chấm)
+    private static String reactionKey(String username) {
+        if (username == null || username.isEmpty() || username.contains(".") || username.startsWith("$")
+                || username.indexOf('\0') >= 0) {
+            throw new RuntimeException("Tên người dùng không hợp lệ để thả cảm xúc: " + username);
+        }
+        return username;
+    }
+
+    @Override
+    public ChatMessage togglePinned(String msgId) {
+        Query query = Query.query(Criteria.where("_id").is(msgId));
+        // isPinned = !isPinned tính ngay trên server
+        AggregationUpdate update = AggregationUpdate.update()
+                .set("isPinned").toValue(BooleanOperators.Not.not("isPinned"));
+        return mongoTemplate.findAndModify(query, update, RETURN_NEW, ChatMessage.class);
+    }
+
+    @Override
+    public List<String> unpinOthers(String conversationId, String keepMsgId) {
+        Query query = Query.query(Criteria.where("conversationId").is(conversationId)
+                .and("isPinned").is(true)
+                .and("_id").ne(keepMsgId));
+        query.fields().include("_id");
+
+        // Lấy id để báo Frontend (thường chỉ 0-1 tin), rồi bỏ ghim tất cả trong 1 lệnh
+        List<String> ids = mongoTemplate.find(query, ChatMessage.class).stream().map(ChatMessage::getId).toList();
+        if (!ids.isEmpty()) {
+            mongoTemplate.updateMulti(query, new Update().set("isPinned", false), ChatMessage.class);
+        }
+        return ids;
+    }
+}
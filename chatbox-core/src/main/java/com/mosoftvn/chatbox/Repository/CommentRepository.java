@@ -1,8 +1,39 @@
 package com.mosoftvn.chatbox.Repository;
 
 import com.mosoftvn.chatbox.Entity.Comment;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 
 public interface CommentRepository extends JpaRepository<Comment, Long> {
-    // chưa cần hàm custom nào
-}
\ No newline at end of file
+
+    // --- LUỒNG BÌNH LUẬN PHÂN TRANG KEYSET (createdAt, id), mới nhất trước ---
+    // JOIN FETCH người viết -> 1 câu cho cả trang, không query users cho từng bình luận
+
+    @Query("SELECT c FROM Comment c JOIN FETCH c.user WHERE c.post.id = :postId " +
+            "ORDER BY c.createdAt DESC, c.id DESC")
+    List<Comment> findThreadFirstPage(@Param("postId") Long postId, Pageable pageable);
+
+    @Query("SELECT c FROM Comment c JOIN FETCH c.user WHERE c.post.id = :postId " +
+            "AND (c.createdAt < :createdAt OR (c.createdAt = :createdAt AND c.id < :id)) " +
+            "ORDER BY c.createdAt DESC, c.id DESC")
+    List<Comment> findThreadBefore(@Param("postId") Long postId,
+                                   @Param("createdAt") LocalDateTime createdAt,
+                                   @Param("id") Long id,
+                                   Pageable pageable);
+
+    // K bình luận mới nhất của MỖI bài trong danh sách, 1 câu duy nhất (window function), kèm thông tin người viết.
+    // Cột trả về: [id, post_id, content, created_at, username, full_name, avatar]
+    @Query(value = "SELECT c.id, c.post_id, c.content, c.created_at, u.username, u.full_name, u.avatar " +
+            "FROM (SELECT cm.*, ROW_NUMBER() OVER (PARTITION BY cm.post_id ORDER BY cm.created_at DESC, cm.id DESC) AS rn " +
+            "      FROM comments cm WHERE cm.post_id IN (:postIds)) c " +
+            "JOIN users u ON u.id = c.user_id " +
+            "WHERE c.rn <= :perPost " +
+            "ORDER BY c.post_id, c.created_at ASC, c.id ASC", nativeQuery = true)
+    List<Object[]> findLatestPerPost(@Param("postIds") Collection<Long> postIds, @Param("perPost") int perPost);
+}
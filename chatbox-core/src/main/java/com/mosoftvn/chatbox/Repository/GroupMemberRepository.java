@@ -11,12 +11,18 @@ public interface GroupMemberRepository extends JpaRepository<GroupMember, Long>
     // Tìm danh sách nhóm mà User này tham gia
     List<GroupMember> findByUser(User user);
 
+    // Tìm các nhóm của user theo username (không cần load User trước)
+    List<GroupMember> findByUserUsername(String username);
+
     // Tìm tất cả thành viên trong 1 nhóm
     List<GroupMember> findByGroup(ChatGroup group);
 
     // Tìm chính xác 1 thành viên trong 1 nhóm (để check tồn tại hoặc xóa)
     Optional<GroupMember> findByGroupAndUser(ChatGroup group, User user);
 
+    // Kiểm tra user có trong nhóm không (không cần load entity)
+    boolean existsByGroupIdAndUserUsername(Long groupId, String username);
+
     // Xóa tất cả thành viên khi giải tán nhóm
     void deleteByGroup(ChatGroup group);
 }
\ No newline at end of file
@@ -1,10 +1,17 @@
 package com.mosoftvn.chatbox.Repository;
 
 import com.mosoftvn.chatbox.Entity.Notification;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Service
 public interface NotificationRepository extends JpaRepository<Notification, Long> {
@@ -16,4 +23,36 @@ public interface NotificationRepository extends JpaRepository<Notification, Long
 
     void deleteById(String recipient);
     void deleteAllByUserId(String userId);
+
+    // --- HỘP THƯ PHÂN TRANG KEYSET (createdAt, id), mới nhất trước ---
+    @Query("SELECT n FROM Notification n WHERE n.recipient = :recipient ORDER BY n.createdAt DESC, n.id DESC")
+    List<Notification> findInboxFirstPage(@Param("recipient") String recipient, Pageable pageable);
+
+    @Query("SELECT n FROM Notification n WHERE n.recipient = :recipient " +
+            "AND (n.createdAt < :createdAt OR (n.createdAt = :createdAt AND n.id < :id)) " +
+            "ORDER BY n.createdAt DESC, n.id DESC")
+    List<Notification> findInboxBefore(@Param("recipient") String recipient,
+                                       @Param("createdAt") LocalDateTime createdAt,
+                                       @Param("id") Long id,
+                                       Pageable pageable);
+
+    // Thông báo gộp còn "mở" (chưa đọc, còn trong cửa sổ thời gian) của cùng người nhận + loại + bài viết
+    Optional<Notification> findFirstByRecipientAndTypeAndRelatedPostIdAndIsReadFalseAndCreatedAtAfterOrderByCreatedAtDesc(
+            String recipient, String type, Long relatedPostId, LocalDateTime after);
+
+    // Số chưa đọc (dùng index recipient + is_read)
+    long countByRecipientAndIsReadFalse(String recipient);
+
+    // Đánh dấu đã đọc hết bằng 1 câu UPDATE, không load từng dòng lên
+    @Transactional
+    @Modifying
+    @Query("UPDATE Notification n SET n.isRead = true WHERE n.recipient = :recipient AND n.isRead = false")
+    int markAllRead(@Param("recipient") String recipient);
+
+    // Dọn thông báo đã đọc quá hạn theo từng mẻ (tránh 1 câu DELETE khóa bảng quá lâu)
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM notifications WHERE id IN (SELECT id FROM notifications " +
+            "WHERE is_read = true AND created_at < :cutoff LIMIT :limit)", nativeQuery = true)
+    int deleteReadBefore(@Param("cutoff") LocalDateTime cutoff, @Param("limit") int limit);
 }
@@ -1,11 +1,121 @@
 package com.mosoftvn.chatbox.Repository;
 
 import com.mosoftvn.chatbox.Entity.Post;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface PostRepository extends JpaRepository<Post, Long> {
     // Lấy tất cả bài viết, sắp xếp mới nhất lên đầu
     List<Post> findAllByOrderByCreatedAtDesc();
 
-}
\ No newline at end of file
+    // --- NEWSFEED PHÂN TRANG KEYSET (createdAt, id) ---
+    // Nạp luôn người đăng trong cùng 1 câu (không query users cho từng bài)
+
+    @EntityGraph(attributePaths = "user")
+    @Query("SELECT p FROM Post p ORDER BY p.createdAt DESC, p.id DESC")
+    List<Post> findFeedFirstPage(Pageable pageable);
+
+    @EntityGraph(attributePaths = "user")
+    @Query("SELECT p FROM Post p WHERE p.createdAt < :createdAt OR (p.createdAt = :createdAt AND p.id < :id) " +
+            "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Post> findFeedBefore(@Param("createdAt") LocalDateTime createdAt, @Param("id") Long id, Pageable pageable);
+
+    // Bài của 1 user (trang cá nhân)
+    @EntityGraph(attributePaths = "user")
+    @Query("SELECT p FROM Post p WHERE p.user.username = :author ORDER BY p.createdAt DESC, p.id DESC")
+    List<Post> findAuthorFirstPage(@Param("author") String author, Pageable pageable);
+
+    @EntityGraph(attributePaths = "user")
+    @Query("SELECT p FROM Post p WHERE p.user.username = :author " +
+            "AND (p.createdAt < :createdAt OR (p.createdAt = :createdAt AND p.id < :id)) " +
+            "ORDER BY p.createdAt DESC, p.id DESC")
+    List<Post> findAuthorBefore(@Param("author") String author,
+                                @Param("createdAt") LocalDateTime createdAt,
+                                @Param("id") Long id,
+                                Pageable pageable);
+
+    // Cảm xúc của 1 user trên các bài trong trang: [post_id, reaction_type]
+    @Query(value = "SELECT post_id, reaction_type FROM post_reactions " +
+            "WHERE post_id IN (:postIds) AND username = :username", nativeQuery = true)
+    List<Object[]> findReactionsOfUser(@Param("postIds") Collection<Long> postIds,
+                                       @Param("username") String username);
+
+    // --- CẢM XÚC: sửa từng dòng post_reactions + cột đếm, không load/ghi lại cả collection ---
+
+    // "Tôi đã thả gì?" theo (post_id, username)
+    @Query(value = "SELECT reaction_type FROM post_reactions WHERE post_id = :postId AND username = :username",
+            nativeQuery = true)
+    Optional<String> findReactionOfUser(@Param("postId") Long postId, @Param("username") String username);
+
+    // Các hàm dưới trả về số dòng bị ảnh hưởng: 0 = request khác đã làm trước (bấm đúp) -> không đụng bộ đếm.
+    // INSERT dùng ON CONFLICT DO NOTHING (khóa chính post_id + username): 2 request cùng lúc thì request sau
+    // nhận 0 dòng thay vì lỗi trùng khóa
+    @Modifying
+    @Query(value = "INSERT INTO post_reactions (post_id, username, reaction_type) VALUES (:postId, :username, :type) " +
+            "ON CONFLICT DO NOTHING", nativeQuery = true)
+    int insertReaction(@Param("postId") Long postId, @Param("username") String username, @Param("type") String type);
+
+    @Modifying
+    @Query(value = "UPDATE post_reactions SET reaction_type = :newType " +
+            "WHERE post_id = :postId AND username = :username AND reaction_type = :oldType", nativeQuery = true)
+    int changeReaction(@Param("postId") Long postId, @Param("username") String username,
+                       @Param("oldType") String oldType, @Param("newType") String newType);
+
+    @Modifying
+    @Query(value = "DELETE FROM post_reactions WHERE post_id = :postId AND username = :username AND reaction_type = :type",
+            nativeQuery = true)
+    int deleteReaction(@Param("postId") Long postId, @Param("username") String username, @Param("type") String type);
+
+    // Cộng/trừ bộ đếm của 1 loại cảm xúc trong 1 câu UPDATE (tăng nguyên tử trong DB, không đọc-sửa-ghi)
+    @Modifying(clearAutomatically = true)
+    @Query(value = "UPDATE posts SET " +
+            "reaction_like_count = COALESCE(reaction_like_count, 0) + CASE WHEN :type = 'LIKE' THEN :delta ELSE 0 END, " +
+            "reaction_love_count = COALESCE(reaction_love_count, 0) + CASE WHEN :type = 'LOVE' THEN :delta ELSE 0 END, " +
+            "reaction_haha_count = COALESCE(reaction_haha_count, 0) + CASE WHEN :type = 'HAHA' THEN :delta ELSE 0 END, " +
+            "reaction_wow_count = COALESCE(reaction_wow_count, 0) + CASE WHEN :type = 'WOW' THEN :delta ELSE 0 END, " +
+            "reaction_sad_count = COALESCE(reaction_sad_count, 0) + CASE WHEN :type = 'SAD' THEN :delta ELSE 0 END, " +
+            "reaction_angry_count = COALESCE(reaction_angry_count, 0) + CASE WHEN :type = 'ANGRY' THEN :delta ELSE 0 END " +
+            "WHERE id = :postId", nativeQuery = true)
+    int adjustReactionCount(@Param("postId") Long postId, @Param("type") String type, @Param("delta") int delta);
+
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE Post p SET p.commentCount = COALESCE(p.commentCount, 0) + :delta WHERE p.id = :postId")
+    int adjustCommentCount(@Param("postId") Long postId, @Param("delta") int delta);
+
+    // --- LIKE CŨ (post_likes) ---
+    @Modifying
+    @Query(value = "INSERT INTO post_likes (post_id, user_id) VALUES (:postId, :userId) ON CONFLICT DO NOTHING",
+            nativeQuery = true)
+    int insertLike(@Param("postId") Long postId, @Param("userId") Long userId);
+
+    @Modifying
+    @Query(value = "DELETE FROM post_likes WHERE post_id = :postId AND user_id = :userId", nativeQuery = true)
+    int deleteLike(@Param("postId") Long postId, @Param("userId") Long userId);
+
+    @Query(value = "SELECT COUNT(*) FROM post_likes WHERE post_id = :postId", nativeQuery = true)
+    long countLikes(@Param("postId") Long postId);
+
+    // Đếm bù cho các bài có từ trước khi thêm cột đếm (cột còn NULL)
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE posts p SET " +
+            "reaction_like_count = (SELECT COUNT(*) FROM post_reactions r WHERE r.post_id = p.id AND r.reaction_type = 'LIKE'), " +
+            "reaction_love_count = (SELECT COUNT(*) FROM post_reactions r WHERE r.post_id = p.id AND r.reaction_type = 'LOVE'), " +
+            "reaction_haha_count = (SELECT COUNT(*) FROM post_reactions r WHERE r.post_id = p.id AND r.reaction_type = 'HAHA'), " +
+            "reaction_wow_count = (SELECT COUNT(*) FROM post_reactions r WHERE r.post_id = p.id AND r.reaction_type = 'WOW'), " +
+            "reaction_sad_count = (SELECT COUNT(*) FROM post_reactions r WHERE r.post_id = p.id AND r.reaction_type = 'SAD'), " +
+            "reaction_angry_count = (SELECT COUNT(*) FROM post_reactions r WHERE r.post_id = p.id AND r.reaction_type = 'ANGRY'), " +
+            "comment_count = (SELECT COUNT(*) FROM comments c WHERE c.post_id = p.id) " +
+            "WHERE p.comment_count IS NULL OR p.reaction_like_count IS NULL", nativeQuery = true)
+    int backfillCounters();
+}
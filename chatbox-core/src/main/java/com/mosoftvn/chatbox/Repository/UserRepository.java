@@ -1,7 +1,12 @@
 package com.mosoftvn.chatbox.Repository;
 
+import com.mosoftvn.chatbox.DTO.UserDirectoryView;
 import com.mosoftvn.chatbox.Entity.User;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.Optional;
@@ -17,4 +22,15 @@ public interface UserRepository extends JpaRepository<User, Long> {
     // Kiểm tra tồn tại
     boolean existsByUsername(String username);
     boolean existsByEmail(String email);
-}
\ No newline at end of file
+
+    // --- DANH BẠ (projection: chỉ lấy id/username/fullName/avatar) ---
+    List<UserDirectoryView> findAllByUsernameNotOrderByUsernameAsc(String username);
+
+    Slice<UserDirectoryView> findByUsernameNot(String username, Pageable pageable);
+
+    // Tìm theo tiền tố username / họ tên, không phân biệt hoa thường.
+    // prefix đã được hạ chữ thường + escape + thêm '%' ở cuối -> dùng được index lower(...) text_pattern_ops
+    @Query("SELECT u.id AS id, u.username AS username, u.fullName AS fullName, u.avatar AS avatar FROM User u " +
+            "WHERE u.username <> :me AND (LOWER(u.username) LIKE :prefix ESCAPE '\\' OR LOWER(u.fullName) LIKE :prefix ESCAPE '\\')")
+    Slice<UserDirectoryView> searchByPrefix(@Param("me") String me, @Param("prefix") String prefix, Pageable pageable);
+}
@@ -0,0 +1,78 @@
+package com.mosoftvn.chatbox.Service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Locale;
+
+// Cache câu trả lời Gemini cho các prompt lặp lại (user bấm "tạo lại" liên tục).
+// Có giới hạn số lượng + thời gian sống; thống kê hit/miss xem ở /actuator/metrics/cache.gets?tag=cache:ai.responses
+@Component
+public class AIResponseCache {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${ai.cache.max-entries:1000}")
+    private long maxEntries;
+
+    @Value("${ai.cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    private Cache<String, String> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "ai.responses");
+    }
+
+    public String get(String key) {
+        return cache.getIfPresent(key);
+    }
+
+    public void put(String key, String reply) {
+        cache.put(key, reply);
+    }
+
+    // Khóa cho prompt chữ: hash của prompt đã chuẩn hóa (bỏ khoảng trắng thừa, không phân biệt hoa thường)
+    public static String textKey(String prompt) {
+        return "text:" + sha256(normalize(prompt));
+    }
+
+    // Khóa cho prompt kèm file: hash nội dung file + hash prompt
+    public static String fileKey(String fileSha256, String prompt) {
+        return "file:" + fileSha256 + ":" + sha256(normalize(prompt));
+    }
+
+    private static String normalize(String prompt) {
+        if (prompt == null) return "";
+        String nfc = Normalizer.normalize(prompt, Normalizer.Form.NFC);
+        return nfc.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -43,6 +43,9 @@ public class AuthService {
     @Autowired
     private TransactionRepository transactionRepository;
 
+    @Autowired
+    private UserSnapshotCache userSnapshotCache;
+
 
     // PasswordEncoder dùng để mã hóa và kiểm tra mật khẩu
     private final PasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
@@ -168,6 +171,7 @@ public class AuthService {
         user.setEnabled(true);
         user.setOtpCode(null);
         userRepository.save(user);
+        userSnapshotCache.invalidate(user.getUsername());
 
         return "Xác thực thành công! Bạn có thể đăng nhập.";
     }
@@ -0,0 +1,128 @@
+package com.mosoftvn.chatbox.Service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mosoftvn.chatbox.Document.ChatMessage;
+import com.mosoftvn.chatbox.Repository.ChatMessageRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+// Bộ nhớ hội thoại của bot: giữ N lượt gần nhất của mỗi user trong RAM (ring buffer),
+// chỉ đọc Mongo 1 lần khi user chưa có trong bộ nhớ (mới khởi động / lâu không chat)
+@Service
+public class BotContextService {
+
+    public static final String ROLE_USER = "user";
+    public static final String ROLE_MODEL = "model";
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    // Số lượt tối đa giữ lại cho mỗi user
+    @Value("${chat.bot.context.max-turns:20}")
+    private int maxTurns;
+
+    // Ngân sách token cho phần lịch sử (ước lượng 4 ký tự ~ 1 token)
+    @Value("${chat.bot.context.max-tokens:2000}")
+    private int maxTokens;
+
+    @Value("${chat.bot.context.max-users:10000}")
+    private long maxUsers;
+
+    @Value("${chat.bot.context.idle-minutes:30}")
+    private long idleMinutes;
+
+    private Cache<String, Deque<Turn>> buffers;
+
+    @PostConstruct
+    public void init() {
+        buffers = Caffeine.newBuilder()
+                .maximumSize(maxUsers)
+                .expireAfterAccess(Duration.ofMinutes(idleMinutes))
+                .build();
+    }
+
+    // Lịch sử (cũ -> mới) để gửi kèm câu hỏi hiện tại, đã cắt theo ngân sách token.
+    // currentMessageId: tin user vừa gửi (đã lưu Mongo) -> bỏ ra để không bị lặp 2 lần
+    public List<Turn> window(String user, String currentMessageId) {
+        Deque<Turn> buffer = buffers.get(user, u -> load(u, currentMessageId));
+        List<Turn> result = new ArrayList<>();
+        synchronized (buffer) {
+            // Duyệt từ mới nhất về cũ, dừng khi hết ngân sách
+            int budget = maxTokens;
+            var it = buffer.descendingIterator();
+            while (it.hasNext()) {
+                Turn turn = it.next();
+                budget -= estimateTokens(turn.getText());
+                if (budget < 0) break;
+                result.add(turn);
+            }
+        }
+        Collections.reverse(result);
+        // Gemini yêu cầu lượt đầu tiên là của user
+        while (!result.isEmpty() && !ROLE_USER.equals(result.get(0).getRole())) {
+            result.remove(0);
+        }
+        return result;
+    }
+
+    // Ghi nhận 1 lượt hỏi-đáp đã xong (chỉ gọi khi bot trả lời thành công)
+    public void record(String user, String question, String answer) {
+        Deque<Turn> buffer = buffers.getIfPresent(user);
+        if (buffer == null) return; // Lần sau sẽ tự nạp lại từ Mongo
+        synchronized (buffer) {
+            buffer.addLast(new Turn(ROLE_USER, question));
+            buffer.addLast(new Turn(ROLE_MODEL, answer));
+            while (buffer.size() > maxTurns) buffer.removeFirst();
+        }
+    }
+
+    private Deque<Turn> load(String user, String currentMessageId) {
+        String conversationId = ChatMessage.directConversationId(user, BotReplyService.BOT_ID);
+        List<ChatMessage> latest = chatMessageRepository.findLatestPage(conversationId,
+                LocalDateTime.of(1970, 1, 1, 0, 0), PageRequest.of(0, maxTurns + 1));
+
+        Deque<Turn> buffer = new ArrayDeque<>();
+        // Kết quả đang là mới nhất trước -> đảo lại
+        for (int i = latest.size() - 1; i >= 0; i--) {
+            ChatMessage msg = latest.get(i);
+            if (msg.getId() != null && msg.getId().equals(currentMessageId)) continue;
+            if (msg.isRevoked()) continue;
+            String text = textOf(msg);
+            if (text == null || text.isBlank()) continue;
+            buffer.addLast(new Turn(BotReplyService.BOT_ID.equals(msg.getSenderId()) ? ROLE_MODEL : ROLE_USER, text));
+        }
+        while (buffer.size() > maxTurns) buffer.removeFirst();
+        return buffer;
+    }
+
+    public static String textOf(ChatMessage msg) {
+        if (msg.getContent() != null && !msg.getContent().isBlank()) return msg.getContent();
+        if (msg.getFileUrl() != null && !msg.getFileUrl().isEmpty()) return "[Đã gửi 1 file]";
+        return null;
+    }
+
+    private static int estimateTokens(String text) {
+        return text == null ? 0 : text.length() / 4 + 1;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Turn {
+        private String role; // "user" | "model"
+        private String text;
+    }
+}
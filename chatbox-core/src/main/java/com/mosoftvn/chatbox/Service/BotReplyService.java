@@ -0,0 +1,205 @@
+package com.mosoftvn.chatbox.Service;
+
+import com.mosoftvn.chatbox.Document.ChatMessage;
+import com.mosoftvn.chatbox.Repository.ChatMessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Hàng đợi xử lý tin nhắn gửi cho bot: số luồng cố định + hàng đợi có giới hạn.
+// Khi quá tải (hàng đợi đầy hoặc 1 user gửi dồn dập) -> trả lời "bot đang bận" thay vì đẻ thêm luồng
+@Service
+public class BotReplyService {
+
+    public static final String BOT_ID = "bot";
+
+    @Autowired private GeminiService geminiService;
+    @Autowired private BotContextService botContextService;
+    @Autowired private ChatMessageRepository chatMessageRepository;
+    @Autowired private SimpMessagingTemplate messagingTemplate;
+    @Autowired private MeterRegistry meterRegistry;
+
+    @Value("${chat.bot.pool-size:4}")
+    private int poolSize;
+
+    @Value("${chat.bot.queue-capacity:100}")
+    private int queueCapacity;
+
+    // Số câu hỏi 1 user được chờ bot cùng lúc (đang xử lý + đang xếp hàng)
+    @Value("${chat.bot.max-per-user:2}")
+    private int maxPerUser;
+
+    // Thời gian tối đa 1 luồng bot chờ Gemini trả lời xong (quá thì báo lỗi, trả luồng cho câu hỏi khác)
+    @Value("${chat.bot.reply-timeout-ms:90000}")
+    private long replyTimeoutMs;
+
+    private ThreadPoolExecutor executor;
+    // username -> số câu hỏi đang chờ (chỉ sửa bên trong compute để kiểm tra + tăng/giảm là 1 bước)
+    private final ConcurrentHashMap<String, Integer> inFlightByUser = new ConcurrentHashMap<>();
+
+    private Timer replyLatency;
+    private Counter rejectedQueueFull;
+    private Counter rejectedUserLimit;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNo = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "bot-reply-" + threadNo.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("chat.bot.queue.depth", executor, e -> e.getQueue().size())
+                .description("Số tin nhắn đang chờ bot xử lý").register(meterRegistry);
+        Gauge.builder("chat.bot.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Số luồng bot đang trả lời").register(meterRegistry);
+        replyLatency = Timer.builder("chat.bot.reply.latency")
+                .description("Thời gian từ lúc nhận tin đến lúc bot trả lời xong (gồm cả thời gian xếp hàng)")
+                .register(meterRegistry);
+        rejectedQueueFull = Counter.builder("chat.bot.rejected").tag("reason", "queue_full").register(meterRegistry);
+        rejectedUserLimit = Counter.builder("chat.bot.rejected").tag("reason", "user_limit").register(meterRegistry);
+    }
+
+    // Nhận tin nhắn của user gửi cho bot, trả về ngay (không block luồng STOMP)
+    public void submit(ChatMessage question) {
+        String user = question.getSenderId();
+        boolean[] accepted = {false};
+        inFlightByUser.compute(user, (k, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= maxPerUser) return count;
+            accepted[0] = true;
+            return current + 1;
+        });
+
+        if (!accepted[0]) {
+            rejectedUserLimit.increment();
+            sendBusyReply(user, "Bot đang trả lời các câu hỏi trước của bạn, vui lòng đợi một chút nhé!");
+            return;
+        }
+
+        long enqueuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                try {
+                    reply(question);
+                } finally {
+                    replyLatency.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+                    release(user);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release(user);
+            rejectedQueueFull.increment();
+            sendBusyReply(user, "Bot đang quá tải, vui lòng thử lại sau ít phút!");
+        }
+    }
+
+    private void reply(ChatMessage question) {
+        // Gán ID trước để các đoạn stream và tin nhắn cuối cùng là CÙNG 1 tin trên giao diện
+        ChatMessage botMsg = new ChatMessage();
+        botMsg.setId(new ObjectId().toHexString());
+        botMsg.setSenderId(BOT_ID);
+        botMsg.setRecipientId(question.getSenderId());
+        botMsg.setTimestamp(LocalDateTime.now());
+
+        String user = question.getSenderId();
+        StringBuilder partial = new StringBuilder();
+        // Hết giờ chờ -> bỏ qua các đoạn stream tới muộn
+        AtomicBoolean abandoned = new AtomicBoolean();
+        String aiReply;
+        try {
+            // Kiểm tra có ảnh không
+            if (question.getFileUrl() != null && !question.getFileUrl().isEmpty()) {
+                System.out.println("LOG: --> Bot đang phân tích ảnh...");
+                aiReply = geminiService.callGeminiWithImage(question.getContent(), question.getFileUrl());
+            } else {
+                System.out.println("LOG: --> Bot đang suy nghĩ...");
+                // Gửi kèm các lượt trước để bot nhớ ngữ cảnh (lấy từ RAM, chỉ đọc Mongo khi chưa có)
+                List<BotContextService.Turn> history = botContextService.window(user, question.getId());
+                CompletableFuture<String> stream = geminiService.streamAsync(
+                        geminiService.createBodyWithHistory(history, question.getContent()), delta -> {
+                            synchronized (partial) {
+                                if (abandoned.get()) return;
+                                partial.append(delta);
+                                sendPartial(botMsg, partial);
+                            }
+                        });
+                try {
+                    aiReply = stream.get(replyTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    stream.cancel(true);
+                    throw e;
+                }
+                // Chỉ nhớ các lượt trả lời thành công (câu báo lỗi không đưa vào ngữ cảnh)
+                botContextService.record(user, question.getContent(), aiReply);
+            }
+        } catch (ExecutionException e) {
+            aiReply = geminiService.failureMessage(e.getCause());
+        } catch (Exception e) {
+            aiReply = geminiService.failureMessage(e);
+        }
+
+        synchronized (partial) {
+            abandoned.set(true);
+        }
+        botMsg.setContent(aiReply);
+
+        // Lưu rồi gửi bản cuối: nếu đã stream thì chỉ cập nhật nội dung, chưa stream thì gửi như tin mới
+        chatMessageRepository.save(botMsg);
+        if (partial.length() > 0) {
+            messagingTemplate.convertAndSendToUser(botMsg.getRecipientId(), "/queue/messages",
+                    Map.of("type", "MSG_UPDATE", "msg", Map.of("id", botMsg.getId(), "content", aiReply)));
+        } else {
+            messagingTemplate.convertAndSendToUser(botMsg.getRecipientId(), "/queue/messages", botMsg);
+        }
+        System.out.println("LOG: --> Bot đã trả lời xong.");
+    }
+
+    // Đoạn đầu tiên gửi như tin nhắn mới, các đoạn sau gửi MSG_UPDATE (Frontend gộp theo id)
+    private void sendPartial(ChatMessage botMsg, StringBuilder partial) {
+        if (botMsg.getContent() == null) {
+            botMsg.setContent(partial.toString());
+            messagingTemplate.convertAndSendToUser(botMsg.getRecipientId(), "/queue/messages", botMsg);
+        } else {
+            messagingTemplate.convertAndSendToUser(botMsg.getRecipientId(), "/queue/messages",
+                    Map.of("type", "MSG_UPDATE", "msg", Map.of("id", botMsg.getId(), "content", partial.toString())));
+        }
+    }
+
+    // Tin báo bận chỉ gửi qua socket, không lưu vào lịch sử
+    private void sendBusyReply(String user, String content) {
+        ChatMessage busyMsg = new ChatMessage(BOT_ID, user, content);
+        messagingTemplate.convertAndSendToUser(user, "/queue/messages", busyMsg);
+    }
+
+    private void release(String user) {
+        inFlightByUser.computeIfPresent(user, (k, count) -> count <= 1 ? null : count - 1);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+    }
+}
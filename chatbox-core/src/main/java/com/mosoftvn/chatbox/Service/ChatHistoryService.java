@@ -0,0 +1,132 @@
+package com.mosoftvn.chatbox.Service;
+
+import com.mosoftvn.chatbox.DTO.ChatHistoryPage;
+import com.mosoftvn.chatbox.Document.ChatMessage;
+import com.mosoftvn.chatbox.Entity.ChatGroup;
+import com.mosoftvn.chatbox.Entity.GroupMember;
+import com.mosoftvn.chatbox.Repository.ChatGroupRepository;
+import com.mosoftvn.chatbox.Repository.ChatMessageRepository;
+import com.mosoftvn.chatbox.Repository.GroupMemberRepository;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+@Service
+public class ChatHistoryService {
+
+    public static final int DEFAULT_PAGE_SIZE = 30;
+    public static final int MAX_PAGE_SIZE = 100;
+
+    // Mốc "xem từ đầu" (năm 1970) cho chat 1-1
+    private static final LocalDateTime VIEW_ALL = LocalDateTime.ofInstant(new Date(0).toInstant(), ZoneId.systemDefault());
+
+    @Autowired private ChatMessageRepository chatMessageRepository;
+    @Autowired private ChatGroupRepository chatGroupRepository;
+    @Autowired private GroupMemberRepository groupMemberRepository;
+    @Autowired private MongoTemplate mongoTemplate;
+
+    // Toàn bộ lịch sử của user (1-1 + các nhóm đang tham gia) trong 1 truy vấn Mongo duy nhất.
+    // Luật xem của nhóm được đẩy vào điều kiện truy vấn: tin user không được xem sẽ không bao giờ được đọc lên
+    public List<ChatMessage> getFullHistory(String username) {
+        List<Criteria> branches = new ArrayList<>();
+
+        // Nhánh chat 1-1: user là người gửi hoặc người nhận
+        branches.add(Criteria.where("type").ne("GROUP").and("senderId").is(username));
+        branches.add(Criteria.where("type").ne("GROUP").and("recipientId").is(username));
+
+        // Mỗi nhóm 1 nhánh: { conversationId: GROUP_x, timestamp >= viewFrom }
+        // memberViewRules được load EAGER cùng nhóm -> không cần findById từng nhóm
+        for (GroupMember membership : groupMemberRepository.findByUserUsername(username)) {
+            ChatGroup group = membership.getGroup();
+            Date viewFrom = group.getMemberViewRules().get(username);
+
+            Criteria branch = Criteria.where("conversationId").is(ChatMessage.groupConversationId(String.valueOf(group.getId())));
+            if (viewFrom != null) {
+                branch = branch.and("timestamp").gte(LocalDateTime.ofInstant(viewFrom.toInstant(), ZoneId.systemDefault()));
+            }
+            branches.add(branch);
+        }
+
+        Query query = new Query(new Criteria().orOperator(branches))
+                .with(Sort.by(Sort.Direction.ASC, "timestamp"));
+        return mongoTemplate.find(query, ChatMessage.class);
+    }
+
+    // Trả về mốc thời gian sớm nhất user được xem trong hội thoại, null nếu user không thuộc hội thoại
+    public LocalDateTime resolveViewFrom(String username, String conversationId) {
+        if (conversationId.startsWith(ChatMessage.GROUP_PREFIX)) {
+            Long groupId;
+            try {
+                groupId = Long.parseLong(conversationId.substring(ChatMessage.GROUP_PREFIX.length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (!groupMemberRepository.existsByGroupIdAndUserUsername(groupId, username)) return null;
+
+            ChatGroup group = chatGroupRepository.findById(groupId).orElse(null);
+            if (group == null) return null;
+            Date viewFrom = group.getMemberViewRules().get(username);
+            return viewFrom != null ? LocalDateTime.ofInstant(viewFrom.toInstant(), ZoneId.systemDefault()) : VIEW_ALL;
+        }
+
+        // Chat 1-1: khóa dạng "userA:userB", user phải là 1 trong 2 bên
+        String[] parties = conversationId.split(":", -1);
+        if (parties.length != 2) return null;
+        return (parties[0].equals(username) || parties[1].equals(username)) ? VIEW_ALL : null;
+    }
+
+    // Lấy 1 trang lịch sử theo cursor. before/after là ID tin nhắn mốc (chỉ dùng 1 trong 2)
+    public ChatHistoryPage getPage(String conversationId, LocalDateTime viewFrom, String before, String after, int size) {
+        int pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        // Lấy dư 1 bản ghi để biết còn trang sau hay không (khỏi phải count)
+        Pageable limit = PageRequest.of(0, pageSize + 1);
+
+        List<ChatMessage> rows;
+        boolean ascending = false;
+        if (after != null) {
+            ChatMessage cursor = findCursor(conversationId, after);
+            rows = chatMessageRepository.findPageAfter(conversationId, cursor.getTimestamp(),
+                    new ObjectId(cursor.getId()), viewFrom, limit);
+            ascending = true;
+        } else if (before != null) {
+            ChatMessage cursor = findCursor(conversationId, before);
+            rows = chatMessageRepository.findPageBefore(conversationId, cursor.getTimestamp(),
+                    new ObjectId(cursor.getId()), viewFrom, limit);
+        } else {
+            rows = chatMessageRepository.findLatestPage(conversationId, viewFrom, limit);
+        }
+
+        boolean hasMore = rows.size() > pageSize;
+        List<ChatMessage> messages = new ArrayList<>(hasMore ? rows.subList(0, pageSize) : rows);
+        if (!ascending) Collections.reverse(messages); // Trả về luôn theo thứ tự cũ -> mới
+
+        String oldestId = messages.isEmpty() ? null : messages.get(0).getId();
+        String newestId = messages.isEmpty() ? null : messages.get(messages.size() - 1).getId();
+        return new ChatHistoryPage(conversationId, messages, oldestId, newestId, hasMore);
+    }
+
+    private ChatMessage findCursor(String conversationId, String messageId) {
+        if (!ObjectId.isValid(messageId)) {
+            throw new IllegalArgumentException("Cursor không hợp lệ: " + messageId);
+        }
+        ChatMessage cursor = chatMessageRepository.findById(messageId)
+                .orElseThrow(() -> new IllegalArgumentException("Không tìm thấy tin nhắn mốc: " + messageId));
+        if (!conversationId.equals(cursor.getConversationId())) {
+            throw new IllegalArgumentException("Tin nhắn mốc không thuộc hội thoại này");
+        }
+        return cursor;
+    }
+}
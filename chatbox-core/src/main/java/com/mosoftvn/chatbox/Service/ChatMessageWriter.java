@@ -0,0 +1,187 @@
+package com.mosoftvn.chatbox.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mosoftvn.chatbox.Document.ChatMessage;
+import com.mosoftvn.chatbox.Repository.ChatMessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Lưu tin nhắn chat. Mặc định lưu đồng bộ như cũ.
+// Bật chat.persist.write-behind=true: gán id ngay, gửi tin đi luôn, Mongo được ghi theo lô nhỏ ở luồng nền
+// (hàng đợi có giới hạn; đầy thì quay về lưu đồng bộ). Lô ghi lỗi được ghi ra file để chạy lại khi khởi động.
+@Service
+public class ChatMessageWriter {
+
+    @Autowired private ChatMessageRepository chatMessageRepository;
+    @Autowired private MongoTemplate mongoTemplate;
+    @Autowired private ObjectMapper objectMapper;
+    @Autowired private MeterRegistry meterRegistry;
+
+    @Value("${chat.persist.write-behind:false}")
+    private boolean writeBehind;
+
+    @Value("${chat.persist.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${chat.persist.batch-size:500}")
+    private int batchSize;
+
+    // Thời gian chờ tối đa để gom lô (ms)
+    @Value("${chat.persist.flush-interval-ms:50}")
+    private long flushIntervalMs;
+
+    @Value("${chat.persist.failure-log:chat-write-failures.jsonl}")
+    private String failureLog;
+
+    private ArrayBlockingQueue<ChatMessage> queue;
+    private Thread flusher;
+    private volatile boolean running;
+
+    private Timer batchTimer;
+    private Counter syncFallbacks;
+    private Counter failedMessages;
+
+    @PostConstruct
+    public void init() {
+        if (!writeBehind) return;
+
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        Gauge.builder("chat.persist.queue.depth", queue, ArrayBlockingQueue::size)
+                .description("Số tin nhắn đang chờ ghi xuống Mongo").register(meterRegistry);
+        batchTimer = Timer.builder("chat.persist.batch").description("Thời gian ghi 1 lô tin nhắn").register(meterRegistry);
+        syncFallbacks = Counter.builder("chat.persist.sync.fallback")
+                .description("Số tin phải lưu đồng bộ vì hàng đợi đầy").register(meterRegistry);
+        failedMessages = Counter.builder("chat.persist.failed")
+                .description("Số tin ghi lỗi (đã ghi ra file chờ chạy lại)").register(meterRegistry);
+
+        running = true;
+        flusher = new Thread(this::flushLoop, "chat-write-behind");
+        flusher.start();
+        System.out.println("LOG: Bật chế độ ghi tin nhắn theo lô (write-behind)");
+    }
+
+    // Trả về tin nhắn đã có id + timestamp, dùng để gửi đi ngay
+    public ChatMessage persist(ChatMessage message) {
+        if (!writeBehind) return chatMessageRepository.save(message);
+
+        // Gán trước những gì Mongo/callback sẽ gán để tin gửi đi giống hệt tin được lưu
+        if (message.getId() == null) message.setId(new ObjectId().toHexString());
+        if (message.getTimestamp() == null) message.setTimestamp(LocalDateTime.now());
+        if (message.getConversationId() == null) message.setConversationId(message.resolveConversationId());
+
+        if (!running || !queue.offer(message)) {
+            // Hàng đợi đầy (Mongo đang chậm) -> lưu đồng bộ, tự tạo áp lực ngược lên luồng STOMP
+            syncFallbacks.increment();
+            return chatMessageRepository.save(message);
+        }
+        return message;
+    }
+
+    private void flushLoop() {
+        List<ChatMessage> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                ChatMessage first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                // Đang tắt: vòng lặp sẽ vét nốt hàng đợi rồi thoát
+                running = false;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<ChatMessage> batch) {
+        try {
+            batchTimer.record(() -> mongoTemplate.insert(batch, ChatMessage.class));
+        } catch (Exception e) {
+            System.out.println("LOG: Ghi lô " + batch.size() + " tin nhắn thất bại: " + e.getMessage());
+            writeFailures(batch);
+        }
+    }
+
+    // Mỗi dòng 1 tin (JSON). Khi chạy lại dùng save (upsert theo id) nên tin nào đã ghi được cũng không bị trùng
+    private synchronized void writeFailures(List<ChatMessage> batch) {
+        if (failedMessages != null) failedMessages.increment(batch.size());
+        try (BufferedWriter writer = Files.newBufferedWriter(Path.of(failureLog), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (ChatMessage message : batch) {
+                writer.write(objectMapper.writeValueAsString(message));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Khởi động lại: ghi bù các tin lần trước bị lỗi
+    @EventListener(ApplicationReadyEvent.class)
+    public void replayFailureLog() {
+        Path log = Path.of(failureLog);
+        if (!Files.exists(log)) return;
+
+        Path replaying = Path.of(failureLog + ".replaying");
+        List<ChatMessage> stillFailing = new ArrayList<>();
+        int replayed = 0;
+        try {
+            Files.move(log, replaying, StandardCopyOption.REPLACE_EXISTING);
+            for (String line : Files.readAllLines(replaying, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) continue;
+                ChatMessage message = objectMapper.readValue(line, ChatMessage.class);
+                try {
+                    chatMessageRepository.save(message);
+                    replayed++;
+                } catch (Exception e) {
+                    stillFailing.add(message);
+                }
+            }
+            Files.delete(replaying);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (!stillFailing.isEmpty()) writeFailures(stillFailing);
+        System.out.println("LOG: Đã ghi bù " + replayed + " tin nhắn, còn lỗi " + stillFailing.size());
+    }
+
+    // Tắt app: dừng nhận, ghi nốt hàng đợi xuống Mongo
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (flusher == null) return;
+        running = false;
+        flusher.join(TimeUnit.SECONDS.toMillis(30));
+        if (!queue.isEmpty()) {
+            List<ChatMessage> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            writeFailures(rest);
+        }
+    }
+}
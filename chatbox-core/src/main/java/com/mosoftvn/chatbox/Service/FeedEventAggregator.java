@@ -0,0 +1,240 @@
+package com.mosoftvn.chatbox.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Gom các sự kiện /topic/feed của cùng 1 bài trong 1 khoảng ngắn thành 1 frame POST_STATS.
+// - Cảm xúc / like: chỉ giữ số đếm mới nhất (+ ai vừa đổi gì, để client biết cảm xúc của chính mình)
+// - Bình luận: gom thành danh sách; sửa bài: giữ nội dung cuối; xóa bài: bắn ngay và bỏ phần đang chờ
+// - Mỗi loại có cửa sổ riêng (feed.coalesce.*-ms), = 0 thì bắn ngay frame cũ như trước
+// - Giới hạn số bài đang chờ: vượt quá thì bắn thẳng, không giữ thêm trong RAM
+@Service
+public class FeedEventAggregator {
+
+    private static final String TOPIC = "/topic/feed";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${feed.coalesce.reaction-ms:250}")
+    private long reactionWindowMs;
+
+    @Value("${feed.coalesce.like-ms:250}")
+    private long likeWindowMs;
+
+    @Value("${feed.coalesce.comment-ms:250}")
+    private long commentWindowMs;
+
+    @Value("${feed.coalesce.edit-ms:250}")
+    private long editWindowMs;
+
+    @Value("${feed.coalesce.max-pending-posts:10000}")
+    private int maxPendingPosts;
+
+    // Quá số bình luận này trong 1 cửa sổ thì bắn luôn (frame không phình to)
+    @Value("${feed.coalesce.max-comments-per-frame:50}")
+    private int maxCommentsPerFrame;
+
+    // Số "ai vừa đổi cảm xúc" tối đa trong 1 frame (người thả đã tự cập nhật giao diện trước, thiếu cũng không sao)
+    @Value("${feed.coalesce.max-reactors-per-frame:100}")
+    private int maxReactorsPerFrame;
+
+    // postId -> phần thay đổi đang chờ bắn
+    private final ConcurrentHashMap<Long, PendingStats> pending = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private Counter eventsReceived;
+    private Counter framesSent;
+    private Counter framesSaved;
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "feed-coalesce");
+            t.setDaemon(true);
+            return t;
+        });
+        eventsReceived = Counter.builder("feed.events.received").register(meterRegistry);
+        framesSent = Counter.builder("feed.frames.sent").register(meterRegistry);
+        framesSaved = Counter.builder("feed.frames.saved").register(meterRegistry);
+        Gauge.builder("feed.pending.posts", pending, Map::size).register(meterRegistry);
+    }
+
+    // Cảm xúc thay đổi: số đếm mới nhất + người vừa thả/gỡ (reaction = null là gỡ)
+    public void reactionChanged(Long postId, Map<String, Long> reactionCounts, int likeCount,
+                                String username, String reaction) {
+        // reaction có thể null -> không dùng Map.of
+        Map<String, Object> legacy = new HashMap<>();
+        legacy.put("type", "POST_REACTION_UPDATE");
+        legacy.put("postId", postId);
+        legacy.put("reactionCounts", reactionCounts);
+        legacy.put("likeCount", likeCount);
+        legacy.put("username", username);
+        legacy.put("reaction", reaction);
+        if (reactionWindowMs <= 0) {
+            sendNow(legacy);
+            return;
+        }
+        enqueue(postId, reactionWindowMs, p -> {
+            p.reactionCounts = reactionCounts;
+            p.likeCount = likeCount;
+            if (p.reactors.size() < maxReactorsPerFrame || p.reactors.containsKey(username)) {
+                p.reactors.put(username, reaction);
+            }
+        }, legacy);
+    }
+
+    // Like kiểu cũ (post_likes)
+    public void likeChanged(Long postId, long postLikeCount) {
+        Map<String, Object> legacy = Map.of("type", "LIKE_UPDATE", "postId", postId, "likeCount", postLikeCount);
+        if (likeWindowMs <= 0) {
+            sendNow(legacy);
+            return;
+        }
+        enqueue(postId, likeWindowMs, p -> p.postLikeCount = postLikeCount, legacy);
+    }
+
+    public void commentAdded(Long postId, Map<String, Object> comment) {
+        Map<String, Object> legacy = Map.of("type", "COMMENT_UPDATE", "postId", postId, "comment", comment);
+        if (commentWindowMs <= 0) {
+            sendNow(legacy);
+            return;
+        }
+        boolean full = enqueue(postId, commentWindowMs, p -> p.comments.add(comment), legacy);
+        if (full) flush(postId);
+    }
+
+    public void postEdited(Long postId, String newContent) {
+        Map<String, Object> legacy = Map.of("type", "POST_UPDATED", "postId", postId, "newContent", newContent);
+        if (editWindowMs <= 0) {
+            sendNow(legacy);
+            return;
+        }
+        enqueue(postId, editWindowMs, p -> p.newContent = newContent, legacy);
+    }
+
+    // Xóa bài: phần đang chờ không còn ý nghĩa -> bỏ, bắn POST_DELETED ngay
+    public void postDeleted(Long postId) {
+        PendingStats dropped = pending.remove(postId);
+        if (dropped != null) framesSaved.increment(dropped.events);
+        sendNow(Map.of("type", "POST_DELETED", "postId", postId));
+    }
+
+    // Trả về true nếu số bình luận đang chờ đã chạm trần (cần bắn sớm)
+    // legacyFrame: frame cũ dùng khi phải bắn thẳng (hàng chờ đầy)
+    private boolean enqueue(Long postId, long windowMs, Consumer<PendingStats> apply, Map<String, Object> legacyFrame) {
+        eventsReceived.increment();
+
+        // Đầy -> không giữ thêm bài mới trong RAM, bắn thẳng frame cũ
+        if (!pending.containsKey(postId) && pending.size() >= maxPendingPosts) {
+            send(legacyFrame);
+            return false;
+        }
+
+        long dueAt = System.currentTimeMillis() + windowMs;
+        boolean[] scheduleFlush = {false};
+        PendingStats stats = pending.compute(postId, (id, p) -> {
+            if (p == null) p = new PendingStats();
+            apply.accept(p);
+            p.events++;
+            // Loại có cửa sổ ngắn hơn tới sau -> hẹn bắn sớm hơn
+            if (p.dueAt == 0 || dueAt < p.dueAt) {
+                p.dueAt = dueAt;
+                scheduleFlush[0] = true;
+            }
+            return p;
+        });
+        if (scheduleFlush[0]) {
+            scheduler.schedule(() -> flushIfDue(postId), windowMs, TimeUnit.MILLISECONDS);
+        }
+        return stats.comments.size() >= maxCommentsPerFrame;
+    }
+
+    private void flushIfDue(Long postId) {
+        PendingStats p = pending.get(postId);
+        if (p != null && p.dueAt <= System.currentTimeMillis()) flush(postId);
+    }
+
+    private void flush(Long postId) {
+        PendingStats p = pending.remove(postId);
+        if (p == null) return;
+        try {
+            Map<String, Object> frame = new HashMap<>();
+            frame.put("type", "POST_STATS");
+            frame.put("postId", postId);
+            if (p.reactionCounts != null) {
+                frame.put("reactionCounts", p.reactionCounts);
+                frame.put("likeCount", p.likeCount);
+                List<Map<String, Object>> reactors = new ArrayList<>();
+                p.reactors.forEach((username, reaction) -> {
+                    Map<String, Object> r = new HashMap<>();
+                    r.put("username", username);
+                    r.put("reaction", reaction);
+                    reactors.add(r);
+                });
+                frame.put("reactions", reactors);
+            }
+            if (p.postLikeCount != null) frame.put("postLikeCount", p.postLikeCount);
+            if (!p.comments.isEmpty()) frame.put("comments", p.comments);
+            if (p.newContent != null) frame.put("newContent", p.newContent);
+
+            send(frame);
+            if (p.events > 1) framesSaved.increment(p.events - 1);
+        } catch (Exception e) {
+            System.err.println("Lỗi socket POST_STATS: " + e.getMessage());
+        }
+    }
+
+    private void sendNow(Map<String, Object> payload) {
+        eventsReceived.increment();
+        send(payload);
+    }
+
+    private void send(Map<String, Object> payload) {
+        try {
+            messagingTemplate.convertAndSend(TOPIC, (Object) payload);
+            framesSent.increment();
+        } catch (Exception e) {
+            System.err.println("Lỗi socket feed: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        // Bắn nốt những gì đang chờ
+        for (Long postId : new ArrayList<>(pending.keySet())) {
+            flush(postId);
+        }
+    }
+
+    // Phần thay đổi của 1 bài trong cửa sổ hiện tại (chỉ sửa bên trong pending.compute)
+    private static class PendingStats {
+        long dueAt;
+        int events;
+        Map<String, Long> reactionCounts;
+        int likeCount;
+        final Map<String, String> reactors = new LinkedHashMap<>();
+        Long postLikeCount;
+        final List<Map<String, Object>> comments = new ArrayList<>();
+        String newContent;
+    }
+}
@@ -2,21 +2,28 @@ package com.mosoftvn.chatbox.Service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Service
 public class GeminiService {
@@ -24,76 +31,108 @@ public class GeminiService {
     @Value("${gemini.api.key}")
     private String apiKey;
 
-    private final String MODEL_ID = "gemini-2.5-flash";
-//    private final String MODEL_ID = "gemini-1.5-flash";
-    private final RestTemplate restTemplate = new RestTemplate();
+    // Đổi base-url sang server giả lập (stub) khi test
+    @Value("${gemini.api.base-url:https://generativelanguage.googleapis.com/v1beta}")
+    private String baseUrl;
+
+    @Value("${gemini.model:gemini-2.5-flash}")
+    private String modelId;
+
+    @Value("${gemini.timeout.connect-ms:5000}")
+    private long connectTimeoutMs;
+
+    // Thời gian tối đa cho 1 request (với stream là thời gian tới khi nhận xong header)
+    @Value("${gemini.timeout.request-ms:60000}")
+    private long requestTimeoutMs;
+
+    // Stream SSE: quá ngần này ms không nhận thêm dòng nào thì hủy (request-ms chỉ tính tới lúc có header)
+    @Value("${gemini.timeout.stream-idle-ms:30000}")
+    private long streamIdleTimeoutMs;
+
+    @Value("${gemini.retry.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${gemini.retry.backoff-ms:2000}")
+    private long backoffMs;
+
+    // HttpClient dùng chung: tự giữ pool kết nối (keep-alive / HTTP2), thread-safe
+    private HttpClient httpClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final String UPLOAD_DIR = "uploads/chat/";
+
+    @Autowired
+    private MediaIngestService mediaIngestService;
+
+    @Autowired
+    private AIResponseCache responseCache;
+
+    @PostConstruct
+    public void init() {
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .version(HttpClient.Version.HTTP_2)
+                .build();
+    }
 
     // --- HÀM 1: CHAT TEXT ---
     public String callGemini(String message) {
-        return sendToGemini(createBodyTextOnly(message));
+        return callGemini(message, true);
+    }
+
+    // useCache = false: bỏ qua cache (VD: user muốn câu trả lời mới hoàn toàn)
+    public String callGemini(String message, boolean useCache) {
+        String key = AIResponseCache.textKey(message);
+        if (useCache) {
+            String cached = responseCache.get(key);
+            if (cached != null) return cached;
+        }
+        return awaitReply(generateAsync(createBodyTextOnly(message)).thenApply(reply -> {
+            responseCache.put(key, reply);
+            return reply;
+        }));
     }
 
     // --- HÀM 2: CHAT ĐA PHƯƠNG TIỆN (ẢNH, VIDEO, PDF) ---
+    // File được đọc dạng stream, giới hạn dung lượng, Base64 ghi thẳng vào body request (không giữ cả file trong RAM)
     public String callGeminiWithImage(String message, String fileUrl) {
-        try {
-            byte[] fileContent;
-            String mimeType;
-
-            // A. TẢI FILE (Cloud vs Local)
-            if (fileUrl.startsWith("http") || fileUrl.startsWith("https")) {
-                System.out.println("LOG: Bot đang tải file từ Cloud: " + fileUrl);
-                try (InputStream in = new URL(fileUrl).openStream()) {
-                    fileContent = in.readAllBytes();
-                }
-                // Xác định MimeType từ đuôi file URL
-                mimeType = getMimeTypeFromUrl(fileUrl);
-            } else {
-                // Fallback Local
-                Path path = Paths.get(UPLOAD_DIR + fileUrl.substring(fileUrl.lastIndexOf("/") + 1));
-                if (!Files.exists(path)) return "Lỗi: Không tìm thấy file trên server.";
-                fileContent = Files.readAllBytes(path);
-                mimeType = Files.probeContentType(path);
-            }
+        return callGeminiWithImage(message, fileUrl, true);
+    }
 
-            if (mimeType == null) mimeType = "application/octet-stream";
+    public String callGeminiWithImage(String message, String fileUrl, boolean useCache) {
+        try (MediaIngestService.MediaSource source = mediaIngestService.open(fileUrl)) {
+            String mimeType = source.getMimeType();
             System.out.println("LOG: Phát hiện định dạng: " + mimeType);
 
-            // B. KIỂM TRA HỖ TRỢ CỦA GEMINI
+            // KIỂM TRA HỖ TRỢ CỦA GEMINI (trước khi tải phần còn lại của file)
             // Gemini Inline chỉ hỗ trợ: Image, PDF, Video, Audio, Text.
             // Excel/Word (.xlsx, .docx) sẽ KHÔNG chạy được qua đường này.
-            if (isSupportedByGemini(mimeType)) {
-                String base64Data = Base64.getEncoder().encodeToString(fileContent);
-                Map<String, Object> body = createBodyWithFile(message, base64Data, mimeType);
-                return sendToGemini(body);
-            } else {
+            if (!isSupportedByGemini(mimeType)) {
                 return "Hiện tại tôi chỉ đọc được Ảnh, Video, PDF và File Text. " +
                         "Với Excel/Word, vui lòng chuyển sang PDF hoặc chụp ảnh màn hình giúp tôi nhé!";
             }
 
+            try (MediaIngestService.SpooledRequest request = mediaIngestService.spoolRequestBody(source, message)) {
+                // Khóa cache theo hash nội dung file (cùng ảnh gửi lại dưới link khác vẫn trúng cache)
+                String key = AIResponseCache.fileKey(request.getSha256(), message);
+                if (useCache) {
+                    String cached = responseCache.get(key);
+                    if (cached != null) return cached;
+                }
+                return awaitReply(generateAsync(HttpRequest.BodyPublishers.ofFile(request.getBodyFile())).thenApply(reply -> {
+                    responseCache.put(key, reply);
+                    return reply;
+                }));
+            }
+        } catch (MediaIngestService.MediaTooLargeException e) {
+            return "Lỗi: " + e.getMessage() + ". Bạn thử gửi file nhỏ hơn nhé!";
+        } catch (FileNotFoundException e) {
+            return "Lỗi: Không tìm thấy file trên server.";
         } catch (IOException e) {
             e.printStackTrace();
             return "Lỗi đọc file: " + e.getMessage();
         }
     }
 
-
-    // 1. Xác định loại file dựa vào đuôi link Cloudinary
-    private String getMimeTypeFromUrl(String url) {
-        String lowerUrl = url.toLowerCase();
-        if (lowerUrl.endsWith(".png")) return "image/png";
-        if (lowerUrl.endsWith(".jpg") || lowerUrl.endsWith(".jpeg")) return "image/jpeg";
-        if (lowerUrl.endsWith(".webp")) return "image/webp";
-        if (lowerUrl.endsWith(".pdf")) return "application/pdf"; // PDF
-        if (lowerUrl.endsWith(".mp4")) return "video/mp4";       // Video
-        if (lowerUrl.endsWith(".mp3")) return "audio/mp3";       // Audio
-        if (lowerUrl.endsWith(".txt")) return "text/plain";
-        if (lowerUrl.endsWith(".csv")) return "text/csv";
-        return "application/octet-stream"; // Không rõ
-    }
-
-    // 2. Kiểm tra Gemini có hỗ trợ native không
+    // Kiểm tra Gemini có hỗ trợ native không
     private boolean isSupportedByGemini(String mimeType) {
         return mimeType.startsWith("image/") ||
                 mimeType.startsWith("video/") ||
@@ -102,68 +141,235 @@ public class GeminiService {
                 mimeType.startsWith("text/");
     }
 
-    // --- CORE: GỬI REQUEST (Giữ nguyên) ---
-    private String sendToGemini(Map<String, Object> body) {
-        int maxRetries = 3; // Thử tối đa 3 lần
-        int waitTime = 2000; // Chờ 2 giây mỗi lần
+    // --- CORE: GỬI REQUEST BẤT ĐỒNG BỘ ---
 
-        for (int i = 0; i < maxRetries; i++) {
-            try {
-                String apiUrl = "https://generativelanguage.googleapis.com/v1beta/models/" + MODEL_ID + ":generateContent?key=" + apiKey;
-                HttpHeaders headers = new HttpHeaders();
-                headers.setContentType(MediaType.APPLICATION_JSON);
-                HttpEntity<Map<String, Object>> entity = new HttpEntity<>(body, headers);
+    // generateContent: trả về cả câu trả lời 1 lần. Lỗi 429/503 -> thử lại sau backoff (không Thread.sleep)
+    public CompletableFuture<String> generateAsync(ObjectNode body) {
+        return generateAsync(jsonBody(body));
+    }
 
-                ResponseEntity<String> response = restTemplate.postForEntity(apiUrl, entity, String.class);
-                JsonNode rootNode = objectMapper.readTree(response.getBody());
+    // Body có sẵn (VD: file tạm chứa ảnh Base64) - publisher phải đọc lại được để còn thử lại
+    public CompletableFuture<String> generateAsync(HttpRequest.BodyPublisher body) {
+        return sendWithRetry(buildRequest("generateContent", body), HttpResponse.BodyHandlers.ofString(), 1)
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) throw new GeminiException(errorMessage(response.statusCode(), response.body()));
+                    try {
+                        return extractText(objectMapper.readTree(response.body()));
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+    }
 
-                if (rootNode.has("error")) {
-                    return "Lỗi từ Google: " + rootNode.path("error").path("message").asText();
-                }
+    // streamGenerateContent (SSE): mỗi dòng "data: {...}" là 1 đoạn câu trả lời.
+    // Đọc kiểu đẩy (không block luồng nào); quá gemini.timeout.stream-idle-ms không có dòng mới -> hủy request
+    public CompletableFuture<String> streamAsync(ObjectNode body, Consumer<String> onDelta) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        SseSubscriber subscriber = new SseSubscriber(onDelta, result);
+        CompletableFuture<HttpResponse<String>> response = sendWithRetry(buildRequest("streamGenerateContent", jsonBody(body)),
+                info -> info.statusCode() == 200
+                        ? HttpResponse.BodySubscribers.fromLineSubscriber(subscriber, s -> "", StandardCharsets.UTF_8, null)
+                        : HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8),
+                1);
+        subscriber.response = response;
+        // Bên gọi hủy future (VD: bot hết giờ chờ) -> hủy luôn request đang stream
+        result.whenComplete((text, error) -> {
+            if (result.isCancelled()) subscriber.cancel();
+        });
+        response.whenComplete((res, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else if (res.statusCode() != 200) {
+                result.completeExceptionally(new GeminiException(errorMessage(res.statusCode(), res.body())));
+            }
+        });
+        return result;
+    }
 
-                return rootNode.path("candidates").get(0).path("content").path("parts").get(0).path("text").asText();
+    // Nhận từng dòng SSE, ghép câu trả lời; tự hủy nếu luồng dữ liệu đứng im quá lâu
+    private class SseSubscriber implements Flow.Subscriber<String> {
+        private final Consumer<String> onDelta;
+        private final CompletableFuture<String> result;
+        private final StringBuilder full = new StringBuilder();
+        private volatile Flow.Subscription subscription;
+        private volatile CompletableFuture<?> response;
+        private volatile long lastActivity = System.nanoTime();
 
+        SseSubscriber(Consumer<String> onDelta, CompletableFuture<String> result) {
+            this.onDelta = onDelta;
+            this.result = result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (result.isDone()) {
+                subscription.cancel();
+                return;
+            }
+            lastActivity = System.nanoTime();
+            scheduleIdleCheck(streamIdleTimeoutMs);
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            lastActivity = System.nanoTime();
+            if (result.isDone() || !line.startsWith("data:")) return;
+            String json = line.substring(5).trim();
+            if (json.isEmpty()) return;
+            try {
+                String delta = extractText(objectMapper.readTree(json));
+                if (!delta.isEmpty()) {
+                    full.append(delta);
+                    onDelta.accept(delta);
+                }
             } catch (Exception e) {
-                // Nếu là lỗi 503 (Quá tải) và chưa hết số lần thử -> Chờ rồi thử lại
-                if (e.getMessage().contains("503") || e.getMessage().contains("429")) {
-                    if (i < maxRetries - 1) {
-                        System.out.println("Google AI quá tải, đang thử lại lần " + (i + 2) + "...");
-                        try { Thread.sleep(waitTime); } catch (InterruptedException ignored) {}
-                        continue; // Quay lại vòng lặp
-                    }
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            result.completeExceptionally(error);
+        }
+
+        @Override
+        public void onComplete() {
+            result.complete(full.toString());
+        }
+
+        private void fail(Throwable error) {
+            result.completeExceptionally(error);
+            cancel();
+        }
+
+        private void cancel() {
+            Flow.Subscription s = subscription;
+            if (s != null) s.cancel();
+            CompletableFuture<?> r = response;
+            if (r != null) r.cancel(true);
+        }
+
+        private void scheduleIdleCheck(long delayMs) {
+            if (streamIdleTimeoutMs <= 0) return;
+            CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS).execute(() -> {
+                if (result.isDone()) return;
+                long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastActivity);
+                if (idleMs >= streamIdleTimeoutMs) {
+                    System.out.println("LOG: Stream Gemini đứng im " + idleMs + "ms, hủy request");
+                    fail(new GeminiException("AI phản hồi quá lâu, vui lòng thử lại sau!"));
+                } else {
+                    scheduleIdleCheck(streamIdleTimeoutMs - idleMs);
                 }
-                e.printStackTrace();
-                return "AI đang quá tải, vui lòng thử lại sau vài phút!";
+            });
+        }
+    }
+
+    private HttpRequest buildRequest(String method, HttpRequest.BodyPublisher body) {
+        String url = baseUrl + "/models/" + modelId + ":" + method + "?key=" + apiKey;
+        if ("streamGenerateContent".equals(method)) url += "&alt=sse";
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(requestTimeoutMs))
+                .header("Content-Type", "application/json")
+                .POST(body)
+                .build();
+    }
+
+    private HttpRequest.BodyPublisher jsonBody(ObjectNode body) {
+        try {
+            return HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body));
+        } catch (IOException e) {
+            throw new IllegalStateException("Không tạo được request Gemini", e);
+        }
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> sendWithRetry(HttpRequest request, HttpResponse.BodyHandler<T> handler, int attempt) {
+        return httpClient.sendAsync(request, handler).thenCompose(response -> {
+            int status = response.statusCode();
+            // 503 (Quá tải) / 429 (Vượt quota) và chưa hết số lần thử -> chờ rồi thử lại
+            if ((status == 503 || status == 429) && attempt < maxAttempts) {
+                System.out.println("Google AI quá tải, đang thử lại lần " + (attempt + 1) + "...");
+                return CompletableFuture.supplyAsync(() -> null,
+                                CompletableFuture.delayedExecutor(backoffMs * attempt, TimeUnit.MILLISECONDS))
+                        .thenCompose(ignored -> sendWithRetry(request, handler, attempt + 1));
             }
+            return CompletableFuture.completedFuture(response);
+        });
+    }
+
+    // Chờ kết quả cho các chỗ gọi đồng bộ (AIController, bot...), lỗi mạng -> câu thông báo thân thiện
+    private String awaitReply(CompletableFuture<String> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            return failureMessage(e);
         }
-        return "Lỗi kết nối AI.";
     }
 
-    // --- TẠO BODY JSON ---
-    private Map<String, Object> createBodyTextOnly(String text) {
-        Map<String, Object> part = new HashMap<>();
-        part.put("text", text);
-        return wrapParts(List.of(part));
+    // Câu thông báo cho user khi gọi AI thất bại
+    public String failureMessage(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        // Lỗi Google trả về (có câu thông báo sẵn) -> trả nguyên câu, lỗi mạng -> báo quá tải
+        if (cause instanceof GeminiException gemini) return gemini.getMessage();
+        cause.printStackTrace();
+        return "AI đang quá tải, vui lòng thử lại sau vài phút!";
     }
 
-    private Map<String, Object> createBodyWithFile(String text, String base64Data, String mimeType) {
-        Map<String, Object> textPart = new HashMap<>();
-        textPart.put("text", (text == null || text.trim().isEmpty()) ? "Hãy phân tích nội dung file này" : text);
+    private String errorMessage(int status, String body) {
+        try {
+            JsonNode rootNode = objectMapper.readTree(body);
+            if (rootNode.has("error")) {
+                return "Lỗi từ Google: " + rootNode.path("error").path("message").asText();
+            }
+        } catch (IOException ignored) {
+        }
+        if (status == 503 || status == 429) return "AI đang quá tải, vui lòng thử lại sau vài phút!";
+        return "Lỗi kết nối AI.";
+    }
 
-        Map<String, Object> filePart = new HashMap<>();
-        Map<String, String> inlineData = new HashMap<>();
-        inlineData.put("mime_type", mimeType);
-        inlineData.put("data", base64Data);
-        filePart.put("inline_data", inlineData);
+    // Ghép text của tất cả các part trong candidate đầu tiên
+    private String extractText(JsonNode rootNode) {
+        StringBuilder sb = new StringBuilder();
+        for (JsonNode part : rootNode.path("candidates").path(0).path("content").path("parts")) {
+            sb.append(part.path("text").asText(""));
+        }
+        return sb.toString();
+    }
 
-        return wrapParts(List.of(textPart, filePart));
+    // --- TẠO BODY JSON ---
+    public ObjectNode createBodyTextOnly(String text) {
+        ObjectNode body = objectMapper.createObjectNode();
+        ArrayNode parts = body.putArray("contents").addObject().putArray("parts");
+        parts.addObject().put("text", text);
+        return body;
     }
 
-    private Map<String, Object> wrapParts(List<Object> parts) {
-        Map<String, Object> content = new HashMap<>();
-        content.put("parts", parts);
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("contents", List.of(content));
-        return requestBody;
+    // Body nhiều lượt: lịch sử hội thoại (cũ -> mới) + câu hỏi hiện tại ở cuối.
+    // Các lượt liền nhau cùng role được gộp lại vì Gemini cần user/model xen kẽ
+    public ObjectNode createBodyWithHistory(List<BotContextService.Turn> history, String text) {
+        ObjectNode body = objectMapper.createObjectNode();
+        ArrayNode contents = body.putArray("contents");
+        ObjectNode last = null;
+        String lastRole = null;
+        List<BotContextService.Turn> turns = new ArrayList<>(history);
+        turns.add(new BotContextService.Turn(BotContextService.ROLE_USER, text));
+        for (BotContextService.Turn turn : turns) {
+            if (!turn.getRole().equals(lastRole)) {
+                last = contents.addObject();
+                last.put("role", turn.getRole());
+                last.putArray("parts");
+                lastRole = turn.getRole();
+            }
+            ((ArrayNode) last.get("parts")).addObject().put("text", turn.getText());
+        }
+        return body;
+    }
+
+    // Lỗi từ phía Google (message là câu thông báo cho user). Không bao giờ được đưa vào cache
+    public static class GeminiException extends RuntimeException {
+        public GeminiException(String message) {
+            super(message);
+        }
     }
-}
\ No newline at end of file
+}
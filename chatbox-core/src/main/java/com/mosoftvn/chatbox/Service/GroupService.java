@@ -22,6 +22,7 @@ public class GroupService {
     @Autowired private ChatGroupRepository groupRepo;
     @Autowired private GroupMemberRepository memberRepo;
     @Autowired private UserRepository userRepo;
+    @Autowired private PresenceService presenceService;
     @Autowired private SimpMessagingTemplate messagingTemplate;
 
     // 1. TẠO NHÓM
@@ -139,7 +140,7 @@ public class GroupService {
         ChatGroup group = groupRepo.findById(groupId).orElseThrow();
         List<GroupMember> members = memberRepo.findByGroup(group);
         List<UserSummary> memberDTOs = members.stream()
-                .map(m -> new UserSummary(m.getUser().getId(), m.getUser().getUsername(), m.getUser().getFullName(), m.getUser().getAvatar(), m.getUser().getStatus()))
+                .map(m -> new UserSummary(m.getUser().getId(), m.getUser().getUsername(), m.getUser().getFullName(), m.getUser().getAvatar(), presenceService.getStatus(m.getUser().getUsername())))
                 .collect(Collectors.toList());
         return new GroupDetailDTO(group.getId(), group.getName(), group.getAvatar(), group.getAdminUsername(), memberDTOs);
     }
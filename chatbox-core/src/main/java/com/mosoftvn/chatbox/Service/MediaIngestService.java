@@ -0,0 +1,251 @@
+package com.mosoftvn.chatbox.Service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+// Đọc file (Cloudinary hoặc local) cho bot phân tích mà KHÔNG giữ cả file trong RAM:
+// - Giới hạn dung lượng (dừng ngay khi vượt, kể cả khi server không báo Content-Length)
+// - Nhận diện định dạng bằng magic bytes thay vì đoán theo đuôi URL
+// - Base64 được ghi thẳng vào body JSON của request (spool ra file tạm để còn gửi lại khi Google báo quá tải)
+@Service
+public class MediaIngestService {
+
+    private static final int SNIFF_BYTES = 64;
+    private static final String UPLOAD_DIR = "uploads/chat/";
+
+    // Gemini inline_data giới hạn ~20MB cho cả request
+    @Value("${gemini.media.max-bytes:20971520}")
+    private long maxBytes;
+
+    @Value("${gemini.media.timeout-ms:15000}")
+    private int timeoutMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // 1. Mở file và nhận diện định dạng (mới đọc vài chục byte đầu)
+    public MediaSource open(String fileUrl) throws IOException {
+        InputStream raw;
+        long declaredLength;
+        String declaredType;
+
+        if (fileUrl.startsWith("http://") || fileUrl.startsWith("https://")) {
+            System.out.println("LOG: Bot đang tải file từ Cloud: " + fileUrl);
+            URLConnection conn = new URL(fileUrl).openConnection();
+            conn.setConnectTimeout(timeoutMs);
+            conn.setReadTimeout(timeoutMs);
+            declaredLength = conn.getContentLengthLong();
+            declaredType = conn.getContentType();
+            raw = conn.getInputStream();
+        } else {
+            // Fallback Local
+            Path path = Paths.get(UPLOAD_DIR + fileUrl.substring(fileUrl.lastIndexOf("/") + 1));
+            if (!Files.exists(path)) throw new FileNotFoundException("Không tìm thấy file trên server.");
+            declaredLength = Files.size(path);
+            declaredType = Files.probeContentType(path);
+            raw = Files.newInputStream(path);
+        }
+
+        if (declaredLength > maxBytes) {
+            raw.close();
+            throw new MediaTooLargeException(maxBytes);
+        }
+
+        BufferedInputStream in = new BufferedInputStream(raw);
+        in.mark(SNIFF_BYTES);
+        byte[] head = in.readNBytes(SNIFF_BYTES);
+        in.reset();
+
+        String mimeType = sniffMimeType(head);
+        if (mimeType == null) mimeType = normalizeDeclaredType(declaredType);
+        return new MediaSource(in, mimeType);
+    }
+
+    // 2. Ghi body request Gemini ra file tạm: {"contents":[{"parts":[{"text":..},{"inline_data":{"mime_type":..,"data":<base64 stream>}}]}]}
+    // SHA-256 của file gốc được tính trong lúc đọc (dùng làm khóa cache)
+    public SpooledRequest spoolRequestBody(MediaSource source, String prompt) throws IOException {
+        Path bodyFile = Files.createTempFile("gemini-body-", ".json");
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try (InputStream limited = new LimitedInputStream(source.getStream(), maxBytes);
+             DigestInputStream digestIn = new DigestInputStream(limited, sha256);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(bodyFile));
+             JsonGenerator gen = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("contents");
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("parts");
+
+            gen.writeStartObject();
+            gen.writeStringField("text", (prompt == null || prompt.trim().isEmpty()) ? "Hãy phân tích nội dung file này" : prompt);
+            gen.writeEndObject();
+
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("inline_data");
+            gen.writeStringField("mime_type", source.getMimeType());
+            gen.writeFieldName("data");
+            // Jackson đọc stream theo từng khối và mã hóa Base64 thẳng ra output
+            gen.writeBinary(digestIn, -1);
+            gen.writeEndObject();
+            gen.writeEndObject();
+
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeEndArray();
+            gen.writeEndObject();
+        } catch (IOException e) {
+            Files.deleteIfExists(bodyFile);
+            throw e;
+        }
+
+        return new SpooledRequest(bodyFile, HexFormat.of().formatHex(sha256.digest()));
+    }
+
+    // --- NHẬN DIỆN ĐỊNH DẠNG TỪ MAGIC BYTES ---
+    static String sniffMimeType(byte[] h) {
+        if (startsWith(h, 0, 0x89, 'P', 'N', 'G')) return "image/png";
+        if (startsWith(h, 0, 0xFF, 0xD8, 0xFF)) return "image/jpeg";
+        if (startsWith(h, 0, 'G', 'I', 'F', '8')) return "image/gif";
+        if (startsWith(h, 0, 'R', 'I', 'F', 'F') && startsWith(h, 8, 'W', 'E', 'B', 'P')) return "image/webp";
+        if (startsWith(h, 0, 'R', 'I', 'F', 'F') && startsWith(h, 8, 'W', 'A', 'V', 'E')) return "audio/wav";
+        if (startsWith(h, 0, '%', 'P', 'D', 'F')) return "application/pdf";
+        if (startsWith(h, 4, 'f', 't', 'y', 'p')) {
+            if (startsWith(h, 8, 'M', '4', 'A')) return "audio/mp4";
+            if (startsWith(h, 8, 'q', 't')) return "video/quicktime";
+            return "video/mp4";
+        }
+        if (startsWith(h, 0, 0x1A, 0x45, 0xDF, 0xA3)) return "video/webm";
+        if (startsWith(h, 0, 'O', 'g', 'g', 'S')) return "audio/ogg";
+        if (startsWith(h, 0, 'I', 'D', '3')) return "audio/mp3";
+        if (h.length > 1 && (h[0] & 0xFF) == 0xFF && (h[1] & 0xE0) == 0xE0) return "audio/mp3";
+        if (startsWith(h, 0, 'P', 'K', 0x03, 0x04)) return "application/zip"; // docx/xlsx cũng là zip
+        if (h.length > 0 && looksLikeText(h)) return "text/plain";
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int... magic) {
+        if (data.length < offset + magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if ((data[offset + i] & 0xFF) != magic[i]) return false;
+        }
+        return true;
+    }
+
+    // Không có byte điều khiển lạ và giải mã được UTF-8 -> coi là text
+    private static boolean looksLikeText(byte[] h) {
+        for (byte b : h) {
+            int c = b & 0xFF;
+            if (c < 0x09 || (c > 0x0D && c < 0x20) || c == 0x7F) return false;
+        }
+        // Cắt bỏ tối đa 3 byte cuối phòng trường hợp ký tự UTF-8 bị cắt ngang
+        for (int cut = 0; cut < 4 && cut < h.length; cut++) {
+            try {
+                StandardCharsets.UTF_8.newDecoder().decode(java.nio.ByteBuffer.wrap(h, 0, h.length - cut));
+                return true;
+            } catch (java.nio.charset.CharacterCodingException ignored) {
+            }
+        }
+        return false;
+    }
+
+    private static String normalizeDeclaredType(String declaredType) {
+        if (declaredType == null) return "application/octet-stream";
+        int semicolon = declaredType.indexOf(';');
+        return (semicolon >= 0 ? declaredType.substring(0, semicolon) : declaredType).trim().toLowerCase();
+    }
+
+    // --- CÁC KIỂU DỮ LIỆU PHỤ ---
+
+    public static class MediaSource implements Closeable {
+        private final InputStream stream;
+        private final String mimeType;
+
+        MediaSource(InputStream stream, String mimeType) {
+            this.stream = stream;
+            this.mimeType = mimeType;
+        }
+
+        public InputStream getStream() { return stream; }
+        public String getMimeType() { return mimeType; }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+
+    // Body request đã ghi ra file tạm, close() sẽ xóa file
+    public static class SpooledRequest implements Closeable {
+        private final Path bodyFile;
+        private final String sha256;
+
+        SpooledRequest(Path bodyFile, String sha256) {
+            this.bodyFile = bodyFile;
+            this.sha256 = sha256;
+        }
+
+        public Path getBodyFile() { return bodyFile; }
+        public String getSha256() { return sha256; }
+
+        @Override
+        public void close() throws IOException {
+            Files.deleteIfExists(bodyFile);
+        }
+    }
+
+    public static class MediaTooLargeException extends IOException {
+        public MediaTooLargeException(long maxBytes) {
+            super("File vượt quá dung lượng cho phép (" + (maxBytes / (1024 * 1024)) + "MB)");
+        }
+    }
+
+    // Ném lỗi ngay khi đọc quá maxBytes (server có thể không gửi Content-Length)
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long count;
+
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0) count(n);
+            return n;
+        }
+
+        private void count(int n) throws IOException {
+            count += n;
+            if (count > maxBytes) throw new MediaTooLargeException(maxBytes);
+        }
+    }
+}
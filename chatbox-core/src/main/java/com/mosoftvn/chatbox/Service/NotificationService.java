@@ -1,14 +1,39 @@
 package com.mosoftvn.chatbox.Service;
 
+import com.mosoftvn.chatbox.DTO.KeysetCursor;
+import com.mosoftvn.chatbox.DTO.NotificationPage;
 import com.mosoftvn.chatbox.Entity.Notification;
 import com.mosoftvn.chatbox.Repository.NotificationRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+// Tạo thông báo không chặn request của người dùng:
+// - createNotification chỉ bỏ vào hàng đợi trong RAM (có giới hạn). Đầy thì chờ rất ngắn, vẫn đầy thì bỏ thông báo
+//   (đếm notification.dropped) chứ không lưu đồng bộ làm chậm request của người dùng
+// - Luồng nền gom lô -> saveAll 1 transaction, rồi bắn socket gộp theo người nhận (1 frame / người / lô)
+// - Bắn socket lỗi thì thử lại vài lần (lùi dần), không ảnh hưởng dữ liệu đã lưu
+// - Thông báo có loại (LIKE / COMMENT / REACTION) trên cùng bài, cùng người nhận, trong cửa sổ thời gian
+//   được gộp vào 1 dòng chưa đọc: "A, B và 12 người khác đã thích bài viết của bạn."
 @Service
 public class NotificationService {
 
@@ -18,28 +43,366 @@ public class NotificationService {
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
-    // Hàm tạo và gửi thông báo
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private UserSnapshotCache userSnapshotCache;
+
+    // false = lưu + bắn ngay trong luồng gọi (như trước)
+    @Value("${notification.async:true}")
+    private boolean async;
+
+    @Value("${notification.queue-capacity:10000}")
+    private int queueCapacity;
+
+    // Hàng đợi đầy thì chờ tối đa ngần này ms để có chỗ, quá thì bỏ thông báo
+    @Value("${notification.enqueue-timeout-ms:20}")
+    private long enqueueTimeoutMs;
+
+    @Value("${notification.batch-size:200}")
+    private int batchSize;
+
+    // Thời gian chờ tối đa để gom lô (ms)
+    @Value("${notification.flush-interval-ms:100}")
+    private long flushIntervalMs;
+
+    @Value("${notification.push.max-attempts:3}")
+    private int pushMaxAttempts;
+
+    @Value("${notification.push.backoff-ms:500}")
+    private long pushBackoffMs;
+
+    // Thông báo ĐÃ ĐỌC cũ hơn ngần này ngày sẽ bị dọn (0 = giữ mãi)
+    @Value("${notification.retention.read-days:30}")
+    private int retentionReadDays;
+
+    @Value("${notification.retention.interval-hours:6}")
+    private long retentionIntervalHours;
+
+    // Gộp vào thông báo chưa đọc cùng loại + bài viết nếu nó mới hơn ngần này phút (0 = không gộp)
+    @Value("${notification.aggregate.window-minutes:60}")
+    private long aggregateWindowMinutes;
+
+    public static final String TYPE_LIKE = "LIKE";
+    public static final String TYPE_COMMENT = "COMMENT";
+    public static final String TYPE_REACTION = "REACTION";
+
+    private static final int INBOX_MAX_PAGE_SIZE = 100;
+    private static final int RETENTION_CHUNK = 1000;
+    // Số người gần nhất lưu lại để hiện tên
+    private static final int MAX_LATEST_ACTORS = 3;
+
+    private final Object persistLock = new Object();
+    private ArrayBlockingQueue<Notification> queue;
+    private Thread flusher;
+    private volatile boolean running;
+    private ScheduledExecutorService retryScheduler;
+    private ScheduledExecutorService retentionScheduler;
+
+    private Timer batchTimer;
+    private Counter dropped;
+    private Counter pushRetries;
+    private Counter pushFailures;
+    private Counter aggregated;
+
+    @PostConstruct
+    public void init() {
+        aggregated = Counter.builder("notification.aggregated")
+                .description("Số thông báo được gộp vào dòng có sẵn thay vì tạo dòng mới").register(meterRegistry);
+
+        if (retentionReadDays > 0) {
+            retentionScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "notification-retention");
+                t.setDaemon(true);
+                return t;
+            });
+            retentionScheduler.scheduleWithFixedDelay(this::purgeOldReadNotifications,
+                    1, retentionIntervalHours * 60, TimeUnit.MINUTES);
+        }
+
+        if (!async) return;
+
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        Gauge.builder("notification.queue.depth", queue, ArrayBlockingQueue::size)
+                .description("Số thông báo đang chờ lưu").register(meterRegistry);
+        batchTimer = Timer.builder("notification.persist.batch").description("Thời gian lưu 1 lô thông báo").register(meterRegistry);
+        dropped = Counter.builder("notification.dropped")
+                .description("Số thông báo bị bỏ vì hàng đợi đầy").register(meterRegistry);
+        pushRetries = Counter.builder("notification.push.retries").register(meterRegistry);
+        pushFailures = Counter.builder("notification.push.failed")
+                .description("Số frame thông báo bỏ cuộc sau khi thử lại").register(meterRegistry);
+
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "notification-push-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        running = true;
+        flusher = new Thread(this::flushLoop, "notification-writer");
+        flusher.start();
+    }
+
+    // Hàm tạo và gửi thông báo (chỉ xếp hàng, lưu + bắn socket ở luồng nền)
     public void createNotification(String recipient, String content, Long postId) {
+        createNotification(recipient, content, postId, null, null);
+    }
+
+    // Thông báo có thể gộp: type = LIKE / COMMENT / REACTION, actor = username người thực hiện.
+    // content là câu đầy đủ cho trường hợp chỉ có 1 người (VD: nội dung bình luận)
+    public void createNotification(String recipient, String content, Long postId, String type, String actor) {
         Notification noti = new Notification();
         noti.setRecipient(recipient);
         noti.setContent(content);
         noti.setRelatedPostId(postId);
-        // isRead mặc định là false, createdAt tự tạo
+        noti.setCreatedAt(LocalDateTime.now());
+        if (type != null && actor != null) {
+            noti.setType(type);
+            noti.setActorCount(1);
+            noti.setLatestActors(actor);
+        }
+        // isRead mặc định là false
 
-        notificationRepository.save(noti);
+        if (!async || !running) {
+            // Tắt chế độ nền (hoặc app đang tắt) -> lưu + gửi Socket ngay trong luồng gọi
+            flush(new ArrayList<>(List.of(noti)));
+            return;
+        }
+        try {
+            if (queue.offer(noti, enqueueTimeoutMs, TimeUnit.MILLISECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Hàng đợi vẫn đầy (DB đang chậm): bỏ thông báo, không bắt request của người dùng chờ DB
+        dropped.increment();
+        System.out.println("LOG: Hàng đợi thông báo đầy, bỏ thông báo cho " + recipient);
+    }
 
-        // Gửi ngay lập tức qua Socket để hiện số đỏ
-        messagingTemplate.convertAndSendToUser(recipient, "/queue/notifications", noti);
+    private void flushLoop() {
+        List<Notification> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Notification first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                flush(batch);
+            } catch (InterruptedException e) {
+                // Đang tắt: vòng lặp sẽ vét nốt hàng đợi rồi thoát
+                running = false;
+            } catch (Exception e) {
+                System.out.println("LOG: Lỗi xử lý lô thông báo: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Notification> incoming) {
+        List<Notification> saved = persist(incoming);
+
+        // Gộp theo người nhận: 1 người nhận 1 frame cho cả lô (1 thông báo thì gửi object như cũ)
+        Map<String, List<Notification>> byRecipient = new LinkedHashMap<>();
+        for (Notification noti : saved) {
+            byRecipient.computeIfAbsent(noti.getRecipient(), k -> new ArrayList<>()).add(noti);
+        }
+        byRecipient.forEach((recipient, list) -> push(recipient, list.size() == 1 ? list.get(0) : list, 1));
     }
 
+    // Gộp + lưu dưới 1 khóa chung: luồng ghi nền và luồng gọi (async=false / lúc tắt app) không cùng gộp
+    // vào 1 dòng (mất số đếm) hoặc cùng tạo 2 dòng mới cho 1 bài
+    private List<Notification> persist(List<Notification> incoming) {
+        synchronized (persistLock) {
+            List<Notification> batch = aggregate(incoming);
+            return save(batch);
+        }
+    }
+
+    private List<Notification> save(List<Notification> batch) {
+        List<Notification> saved;
+        try {
+            saved = batchTimer != null
+                    ? batchTimer.record(() -> notificationRepository.saveAll(batch))
+                    : notificationRepository.saveAll(batch);
+        } catch (Exception e) {
+            // Lô lỗi -> lưu từng cái để 1 bản ghi hỏng không kéo cả lô
+            System.out.println("LOG: Lưu lô " + batch.size() + " thông báo thất bại, lưu từng cái: " + e.getMessage());
+            saved = new ArrayList<>();
+            for (Notification noti : batch) {
+                try {
+                    saved.add(notificationRepository.save(noti));
+                } catch (Exception ex) {
+                    System.out.println("LOG: Bỏ thông báo cho " + noti.getRecipient() + ": " + ex.getMessage());
+                }
+            }
+        }
+        return saved;
+    }
+
+    // Gộp các thông báo cùng (người nhận, loại, bài viết): trong lô với nhau, và với dòng chưa đọc
+    // còn trong cửa sổ ở DB. Trả về danh sách cần lưu (dòng gộp là dòng cũ đã cập nhật)
+    private List<Notification> aggregate(List<Notification> batch) {
+        if (aggregateWindowMinutes <= 0) return batch;
+
+        List<Notification> result = new ArrayList<>();
+        Map<String, Notification> open = new LinkedHashMap<>();
+        LocalDateTime after = LocalDateTime.now().minusMinutes(aggregateWindowMinutes);
+        for (Notification noti : batch) {
+            if (noti.getType() == null || noti.getRelatedPostId() == null) {
+                result.add(noti);
+                continue;
+            }
+            String key = noti.getRecipient() + "|" + noti.getType() + "|" + noti.getRelatedPostId();
+            Notification target = open.get(key);
+            if (target == null) {
+                try {
+                    target = notificationRepository
+                            .findFirstByRecipientAndTypeAndRelatedPostIdAndIsReadFalseAndCreatedAtAfterOrderByCreatedAtDesc(
+                                    noti.getRecipient(), noti.getType(), noti.getRelatedPostId(), after)
+                            .orElse(null);
+                } catch (Exception e) {
+                    // Không tìm được thì tạo dòng mới, không mất thông báo
+                    System.out.println("LOG: Không tìm được thông báo để gộp: " + e.getMessage());
+                }
+            }
+            if (target == null) {
+                open.put(key, noti);
+            } else {
+                fold(target, noti);
+                open.put(key, target);
+                aggregated.increment();
+            }
+        }
+        result.addAll(open.values());
+        return result;
+    }
+
+    // Gộp noti (1 người) vào target: người mới lên đầu, cùng người làm lại thì không tăng số đếm.
+    // Chỉ nhớ MAX_LATEST_ACTORS người gần nhất nên lọc trùng người chỉ là gần đúng
+    private void fold(Notification target, Notification noti) {
+        String actor = noti.getLatestActors();
+        List<String> actors = new ArrayList<>();
+        if (target.getLatestActors() != null && !target.getLatestActors().isBlank()) {
+            actors.addAll(List.of(target.getLatestActors().split(",")));
+        }
+        int count = target.getActorCount() != null ? target.getActorCount() : Math.max(1, actors.size());
+        if (!actors.remove(actor)) count++;
+        actors.add(0, actor);
+        if (actors.size() > MAX_LATEST_ACTORS) actors = actors.subList(0, MAX_LATEST_ACTORS);
+
+        target.setActorCount(count);
+        target.setLatestActors(String.join(",", actors));
+        target.setCreatedAt(noti.getCreatedAt());
+        target.setRead(false);
+        // Vẫn chỉ 1 người (làm lại) -> giữ câu cụ thể mới nhất
+        target.setContent(count > 1 ? aggregatedContent(target.getType(), actors, count) : noti.getContent());
+    }
+
+    // "A đã ...", "A và B đã ...", "A, B và 12 người khác đã ..."
+    private String aggregatedContent(String type, List<String> actors, int count) {
+        String first = displayName(actors.get(0));
+        String names;
+        if (count == 2 && actors.size() >= 2) {
+            names = first + " và " + displayName(actors.get(1));
+        } else if (count > 2 && actors.size() >= 2) {
+            names = first + ", " + displayName(actors.get(1)) + " và " + (count - 2) + " người khác";
+        } else {
+            names = first + " và " + (count - 1) + " người khác";
+        }
+        String action = switch (type) {
+            case TYPE_LIKE -> "đã thích bài viết của bạn.";
+            case TYPE_COMMENT -> "đã bình luận về bài viết của bạn.";
+            case TYPE_REACTION -> "đã bày tỏ cảm xúc về bài viết của bạn.";
+            default -> "đã tương tác với bài viết của bạn.";
+        };
+        return names + " " + action;
+    }
+
+    private String displayName(String username) {
+        return userSnapshotCache.get(username)
+                .map(u -> u.getFullName() != null ? u.getFullName() : username)
+                .orElse(username);
+    }
+
+    private void push(String recipient, Object payload, int attempt) {
+        try {
+            messagingTemplate.convertAndSendToUser(recipient, "/queue/notifications", payload);
+        } catch (Exception e) {
+            if (retryScheduler == null || attempt >= pushMaxAttempts) {
+                if (pushFailures != null) pushFailures.increment();
+                System.out.println("LOG: Không gửi được thông báo cho " + recipient + ": " + e.getMessage());
+                return;
+            }
+            pushRetries.increment();
+            retryScheduler.schedule(() -> push(recipient, payload, attempt + 1),
+                    pushBackoffMs * attempt, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Dọn thông báo đã đọc quá hạn, xóa theo mẻ nhỏ cho tới khi hết
+    void purgeOldReadNotifications() {
+        try {
+            LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionReadDays);
+            int total = 0;
+            int deleted;
+            do {
+                deleted = notificationRepository.deleteReadBefore(cutoff, RETENTION_CHUNK);
+                total += deleted;
+            } while (deleted == RETENTION_CHUNK);
+            if (total > 0) System.out.println("LOG: Đã dọn " + total + " thông báo đã đọc quá " + retentionReadDays + " ngày");
+        } catch (Exception e) {
+            System.out.println("LOG: Dọn thông báo lỗi: " + e.getMessage());
+        }
+    }
+
+    // Tắt app: dừng nhận, lưu nốt hàng đợi
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (retentionScheduler != null) retentionScheduler.shutdownNow();
+        if (flusher == null) return;
+        running = false;
+        flusher.join(TimeUnit.SECONDS.toMillis(30));
+        retryScheduler.shutdown();
+    }
+
+    // API cũ GET /api/notifications: giờ chỉ trả trang đầu của hộp thư
     public List<Notification> getUserNotifications(String username) {
-        return notificationRepository.findByRecipientOrderByCreatedAtDesc(username);
+        return getInbox(username, null, 50).getNotifications();
+    }
+
+    // Hộp thư phân trang keyset: mới nhất trước, trang sau là các thông báo cũ hơn cursor
+    public NotificationPage getInbox(String username, String before, int size) {
+        int pageSize = Math.max(1, Math.min(size, INBOX_MAX_PAGE_SIZE));
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+
+        List<Notification> list;
+        if (before == null || before.isBlank()) {
+            list = notificationRepository.findInboxFirstPage(username, limit);
+        } else {
+            KeysetCursor cursor = KeysetCursor.parse(before);
+            list = notificationRepository.findInboxBefore(username, cursor.getCreatedAt(), cursor.getId(), limit);
+        }
+
+        boolean hasNext = list.size() > pageSize;
+        if (hasNext) list = list.subList(0, pageSize);
+        String nextCursor = null;
+        Notification last = list.isEmpty() ? null : list.get(list.size() - 1);
+        // Dòng cũ không có createdAt thì không lập cursor được -> coi như hết
+        if (hasNext && last.getCreatedAt() != null) {
+            nextCursor = KeysetCursor.encode(last.getCreatedAt(), last.getId());
+        } else {
+            hasNext = false;
+        }
+        return new NotificationPage(list, nextCursor, hasNext);
+    }
+
+    public long getUnreadCount(String username) {
+        return notificationRepository.countByRecipientAndIsReadFalse(username);
     }
 
+    // 1 câu UPDATE cho tất cả, không load từng thông báo lên
     public void markAllAsRead(String username) {
-        List<Notification> list = notificationRepository.findByRecipientAndIsReadFalse(username);
-        list.forEach(n -> n.setRead(true));
-        notificationRepository.saveAll(list);
+        notificationRepository.markAllRead(username);
     }
     @Transactional
     public void deleteNotification(String id) {
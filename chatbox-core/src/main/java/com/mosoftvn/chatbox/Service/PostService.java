@@ -1,6 +1,10 @@
 package com.mosoftvn.chatbox.Service;
 
+import com.mosoftvn.chatbox.DTO.CommentPage;
+import com.mosoftvn.chatbox.DTO.FeedPage;
+import com.mosoftvn.chatbox.DTO.KeysetCursor;
 import com.mosoftvn.chatbox.DTO.PostResponse;
+import com.mosoftvn.chatbox.DTO.UserSnapshot;
 import com.mosoftvn.chatbox.Entity.Comment;
 import com.mosoftvn.chatbox.Entity.Post;
 import com.mosoftvn.chatbox.Entity.User;
@@ -8,9 +12,15 @@ import com.mosoftvn.chatbox.Repository.CommentRepository;
 import com.mosoftvn.chatbox.Repository.PostRepository;
 import com.mosoftvn.chatbox.Repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -18,6 +28,12 @@ import java.util.stream.Collectors;
 @Service
 public class PostService {
 
+    private static final int FEED_MAX_PAGE_SIZE = 50;
+    private static final int FEED_DEFAULT_PAGE_SIZE = 10;
+    private static final int COMMENT_MAX_PAGE_SIZE = 100;
+    // Trang chi tiết bài viết chỉ kèm ngần này bình luận mới nhất, cũ hơn thì tải thêm qua getComments
+    private static final int DETAIL_COMMENT_PAGE_SIZE = 20;
+
     @Autowired
     private PostRepository postRepository;
 
@@ -33,6 +49,16 @@ public class PostService {
     @Autowired
     private NotificationService notificationService;
 
+    @Autowired
+    private UserSnapshotCache userSnapshotCache;
+
+    @Autowired
+    private FeedEventAggregator feedEventAggregator;
+
+    // Số bình luận mới nhất kèm theo mỗi bài trên feed (xem thêm thì gọi API chi tiết)
+    @Value("${feed.comment-preview:3}")
+    private int commentPreview;
+
 
     // 1. Đăng bài mới
     public PostResponse createPost(String username, String content, String imageUrl, String backgroundTheme) {
@@ -69,53 +95,77 @@ public class PostService {
         return mapToDTO(savedPost, username);
     }
 
-    // 2. Lấy danh sách bài viết
+    // 2. Lấy danh sách bài viết (API cũ GET /api/posts: giờ chỉ trả trang đầu của feed)
     public List<PostResponse> getAllPosts(String currentUsername) {
-        User currentUser = userRepository.findByUsername(currentUsername).orElse(null);
-        Long currentUserId = (currentUser != null) ? currentUser.getId() : null;
-
-        return postRepository.findAllByOrderByCreatedAtDesc().stream()
-                .map(post -> mapToDTO(post, currentUsername))
-                .collect(Collectors.toList());
+        return getFeed(currentUsername, null, null, FEED_DEFAULT_PAGE_SIZE).getPosts();
     }
 
-    // 3. Like/Unlike
-    public void toggleLike(Long postId, String username) {
-        Post post = postRepository.findById(postId).orElseThrow();
-        User user = userRepository.findByUsername(username).orElseThrow();
-
-        if (post.getLikedUserIds() == null) {
-            post.setLikedUserIds(new HashSet<>());
+    // 2b. Newsfeed phân trang keyset: mới nhất trước, trang sau lấy theo cursor (createdAt, id) của bài cuối.
+    // Mỗi trang chạy số câu query cố định (bài + người đăng, đếm cảm xúc, cảm xúc của tôi, bình luận) dù bảng lớn cỡ nào.
+    // author != null -> chỉ bài của user đó (trang cá nhân)
+    public FeedPage getFeed(String currentUsername, String author, String before, int size) {
+        int pageSize = Math.max(1, Math.min(size, FEED_MAX_PAGE_SIZE));
+        // Lấy dư 1 bài để biết còn trang sau không (khỏi COUNT)
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+
+        List<Post> posts;
+        if (before == null || before.isBlank()) {
+            posts = author == null ? postRepository.findFeedFirstPage(limit)
+                    : postRepository.findAuthorFirstPage(author, limit);
+        } else {
+            KeysetCursor cursor = KeysetCursor.parse(before);
+            posts = author == null ? postRepository.findFeedBefore(cursor.getCreatedAt(), cursor.getId(), limit)
+                    : postRepository.findAuthorBefore(author, cursor.getCreatedAt(), cursor.getId(), limit);
         }
 
-        boolean isLiked;
-        if (post.getLikedUserIds().contains(user.getId())) {
-            post.getLikedUserIds().remove(user.getId());
-            isLiked = false;
-        } else {
-            post.getLikedUserIds().add(user.getId());
-            isLiked = true;
+        boolean hasNext = posts.size() > pageSize;
+        if (hasNext) posts = posts.subList(0, pageSize);
+
+        List<PostResponse> items = mapToFeedDTOs(posts, currentUsername);
+        String nextCursor = null;
+        if (hasNext) {
+            Post last = posts.get(posts.size() - 1);
+            nextCursor = KeysetCursor.encode(last.getCreatedAt(), last.getId());
         }
-        postRepository.save(post);
+        return new FeedPage(items, nextCursor, hasNext);
+    }
 
+    // Bài đăng từ trước khi có cột đếm: đếm bù 1 lần lúc khởi động (chỉ các dòng còn NULL)
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillCounters() {
         try {
-            Map<String, Object> updateMsg = Map.of(
-                    "type", "LIKE_UPDATE",
-                    "postId", postId,
-                    "likeCount", post.getLikedUserIds().size()
-            );
-            messagingTemplate.convertAndSend("/topic/feed", (Object) updateMsg);
-        } catch (Exception e){
-            System.err.println("Lỗi gửi Socket: " + e.getMessage());
+            int updated = postRepository.backfillCounters();
+            if (updated > 0) System.out.println("LOG: Đã đếm bù cảm xúc/bình luận cho " + updated + " bài viết");
+        } catch (Exception e) {
+            System.out.println("LOG: Đếm bù bộ đếm bài viết lỗi: " + e.getMessage());
         }
+    }
+
+    // 3. Like/Unlike (thêm/xóa đúng 1 dòng post_likes, không load rồi ghi lại cả danh sách)
+    @Transactional
+    public void toggleLike(Long postId, String username) {
+        Post post = postRepository.findById(postId).orElseThrow();
+        // Chỉ cần id + tên -> lấy từ snapshot cache, không query bảng users
+        UserSnapshot user = userSnapshotCache.get(username).orElseThrow();
+
+        boolean isLiked = false;
+        if (postRepository.deleteLike(postId, user.getId()) == 0) {
+            isLiked = postRepository.insertLike(postId, user.getId()) > 0;
+        }
+        long likeCount = postRepository.countLikes(postId);
+
+        // Gom vào frame POST_STATS của bài (bài hot không bắn 1 frame cho mỗi lượt like)
+        feedEventAggregator.likeChanged(postId, likeCount);
 
         if (isLiked && !post.getUser().getUsername().equals(username)) {
             String content = user.getFullName() + " đã thích bài viết của bạn.";
-            notificationService.createNotification(post.getUser().getUsername(), content, post.getId());
+            notificationService.createNotification(post.getUser().getUsername(), content, post.getId(),
+                    NotificationService.TYPE_LIKE, username);
         }
     }
 
     // 4. Comment
+    @Transactional
     public void addComment(Long postId, String username, String content) {
         Post post = postRepository.findById(postId).orElseThrow();
         User user = userRepository.findByUsername(username).orElseThrow();
@@ -129,30 +179,22 @@ public class PostService {
         // --------------------------------------
 
         commentRepository.save(comment);
-
-        try{
-            Map<String, Object> commentData = Map.of(
-                    "id", comment.getId(),
-                    "content", comment.getContent(),
-                    "username", user.getUsername(),
-                    "fullName", user.getFullName() != null ? user.getFullName() : user.getUsername(),
-                    "avatar", user.getAvatar() != null ? user.getAvatar() : "",
-                    "createdAt", comment.getCreatedAt().toString()
-            );
-
-            Map<String, Object> updateMsg = Map.of(
-                    "type", "COMMENT_UPDATE",
-                    "postId", postId,
-                    "comment", commentData
-            );
-            messagingTemplate.convertAndSend("/topic/feed", (Object) updateMsg);
-        } catch (Exception e){
-            System.err.println("Lỗi Socket Comment: " + e.getMessage());
-        }
+        postRepository.adjustCommentCount(postId, 1);
+
+        Map<String, Object> commentData = Map.of(
+                "id", comment.getId(),
+                "content", comment.getContent(),
+                "username", user.getUsername(),
+                "fullName", user.getFullName() != null ? user.getFullName() : user.getUsername(),
+                "avatar", user.getAvatar() != null ? user.getAvatar() : "",
+                "createdAt", comment.getCreatedAt().toString()
+        );
+        feedEventAggregator.commentAdded(postId, commentData);
 
         if (!post.getUser().getUsername().equals(username)) {
             String notiContent = user.getFullName() + " đã bình luận: " + content;
-            notificationService.createNotification(post.getUser().getUsername(), notiContent, post.getId());
+            notificationService.createNotification(post.getUser().getUsername(), notiContent, post.getId(),
+                    NotificationService.TYPE_COMMENT, username);
         }
     }
 
@@ -165,16 +207,7 @@ public class PostService {
         post.setContent(newContent);
         postRepository.save(post);
 
-        try {
-            Map<String, Object> msg = Map.of(
-                    "type", "POST_UPDATED",
-                    "postId", postId,
-                    "newContent", newContent
-            );
-            messagingTemplate.convertAndSend("/topic/feed", (Object) msg);
-        } catch (Exception e) {
-            System.err.println("Lỗi socket update: " + e.getMessage());
-        }
+        feedEventAggregator.postEdited(postId, newContent);
     }
 
     // 6. Xóa bài viết
@@ -185,60 +218,107 @@ public class PostService {
         }
         postRepository.delete(post);
 
-        try {
-            Map<String, Object> msg = Map.of("type", "POST_DELETED", "postId", postId);
-            messagingTemplate.convertAndSend("/topic/feed", (Object) msg);
-        } catch (Exception e) {
-            System.err.println("Lỗi socket delete: " + e.getMessage());
+        feedEventAggregator.postDeleted(postId);
+    }
+
+    // 7b. Luồng bình luận phân trang keyset: mới nhất trước, trang sau là các bình luận cũ hơn cursor
+    public CommentPage getComments(Long postId, String before, int size) {
+        int pageSize = Math.max(1, Math.min(size, COMMENT_MAX_PAGE_SIZE));
+        return loadCommentPage(postId, before, pageSize);
+    }
+
+    private CommentPage loadCommentPage(Long postId, String before, int pageSize) {
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+        List<Comment> comments;
+        if (before == null || before.isBlank()) {
+            comments = commentRepository.findThreadFirstPage(postId, limit);
+        } else {
+            KeysetCursor cursor = KeysetCursor.parse(before);
+            comments = commentRepository.findThreadBefore(postId, cursor.getCreatedAt(), cursor.getId(), limit);
         }
+
+        boolean hasNext = comments.size() > pageSize;
+        if (hasNext) comments = comments.subList(0, pageSize);
+
+        String nextCursor = null;
+        if (hasNext) {
+            Comment oldest = comments.get(comments.size() - 1);
+            nextCursor = KeysetCursor.encode(oldest.getCreatedAt(), oldest.getId());
+        }
+
+        // Query trả mới -> cũ, giao diện hiển thị cũ -> mới
+        List<PostResponse.CommentDTO> dtos = new ArrayList<>(comments.size());
+        for (int i = comments.size() - 1; i >= 0; i--) {
+            dtos.add(toCommentDTO(comments.get(i)));
+        }
+        return new CommentPage(dtos, nextCursor, hasNext);
+    }
+
+    private PostResponse.CommentDTO toCommentDTO(Comment c) {
+        return new PostResponse.CommentDTO(
+                c.getId(),
+                c.getContent(),
+                c.getUser().getUsername(),
+                c.getUser().getFullName() != null ? c.getUser().getFullName() : c.getUser().getUsername(),
+                c.getUser().getAvatar(),
+                c.getCreatedAt()
+        );
     }
 
     // 7. Lấy chi tiết
     public PostResponse getPostById(Long postId, String currentUsername) {
         Post post = postRepository.findById(postId)
                 .orElseThrow(() -> new RuntimeException("Post not found with id: " + postId));
-        User currentUser = userRepository.findByUsername(currentUsername).orElse(null);
-        Long currentUserId = (currentUser != null) ? currentUser.getId() : null;
         return mapToDTO(post, currentUsername);
     }
 
+    // Thả / đổi / gỡ cảm xúc: sửa đúng 1 dòng post_reactions + cộng trừ cột đếm, không load map reactions
+    @Transactional
     public void reactToPost(Long postId, String username, String reactionType) {
+        if (!Post.REACTION_TYPES.contains(reactionType)) {
+            throw new RuntimeException("Loại cảm xúc không hợp lệ: " + reactionType);
+        }
         Post post = postRepository.findById(postId).orElseThrow();
-        User user = userRepository.findByUsername(username).orElseThrow();
-
-        if (post.getReactions() == null) post.setReactions(new HashMap<>());
+        UserSnapshot user = userSnapshotCache.get(username).orElseThrow();
 
-        String currentReaction = post.getReactions().get(username);
+        String currentReaction = postRepository.findReactionOfUser(postId, username).orElse(null);
         boolean isAdding = false;
-
-        // Logic Toggle:
-        if (currentReaction != null && currentReaction.equals(reactionType)) {
-            post.getReactions().remove(username); // Gỡ bỏ
-        } else {
-            post.getReactions().put(username, reactionType); // Thêm mới hoặc đổi icon
+        String myReaction = currentReaction;
+
+        // Logic Toggle (mỗi bước chỉ cập nhật bộ đếm khi thực sự đổi được dòng -> bấm đúp không đếm 2 lần):
+        if (reactionType.equals(currentReaction)) {
+            if (postRepository.deleteReaction(postId, username, reactionType) > 0) { // Gỡ bỏ
+                postRepository.adjustReactionCount(postId, reactionType, -1);
+                myReaction = null;
+            }
+        } else if (currentReaction == null) {
+            if (postRepository.insertReaction(postId, username, reactionType) > 0) { // Thêm mới
+                postRepository.adjustReactionCount(postId, reactionType, 1);
+                myReaction = reactionType;
+                isAdding = true;
+            }
+        } else if (postRepository.changeReaction(postId, username, currentReaction, reactionType) > 0) { // Đổi icon
+            postRepository.adjustReactionCount(postId, currentReaction, -1);
+            postRepository.adjustReactionCount(postId, reactionType, 1);
+            myReaction = reactionType;
             isAdding = true;
         }
 
-        postRepository.save(post);
+        // Đọc lại bộ đếm mới nhất (các câu UPDATE ở trên đã xóa cache của EntityManager)
+        Post updated = postRepository.findById(postId).orElse(post);
 
-        // 1. Bắn Socket cập nhật giao diện (PostCard tự nhảy số)
-        try {
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("type", "POST_REACTION_UPDATE");
-            payload.put("postId", postId);
-            payload.put("reactions", post.getReactions());
-            payload.put("likeCount", post.getLikeCount());
-
-            messagingTemplate.convertAndSend("/topic/feed", (Object) (payload));
-        } catch (Exception e) { e.printStackTrace(); }
+        // 1. Cập nhật giao diện (PostCard tự nhảy số): chỉ gửi số đếm + ai vừa đổi gì, không gửi cả map.
+        // Các lượt thả dồn dập trên cùng 1 bài được gom thành 1 frame POST_STATS
+        feedEventAggregator.reactionChanged(postId, updated.getReactionCounts(), updated.getLikeCount(), username, myReaction);
 
         // Chỉ báo nếu là hành động Thêm/Đổi (isAdding = true) và người thả không phải chủ bài viết
         if (isAdding && !post.getUser().getUsername().equals(username)) {
             String emoji = getEmojiIcon(reactionType);
             String content = user.getFullName() + " đã thả cảm xúc " + emoji + " vào bài viết của bạn.";
 
-            // Gọi NotificationService để lưu DB và bắn Socket thông báo
-            notificationService.createNotification(post.getUser().getUsername(), content, post.getId());
+            // Gọi NotificationService để lưu DB và bắn Socket thông báo (gộp với các lượt thả khác trên bài)
+            notificationService.createNotification(post.getUser().getUsername(), content, post.getId(),
+                    NotificationService.TYPE_REACTION, username);
         }
     }
 
@@ -256,36 +336,85 @@ public class PostService {
     }
 
 
+    // Map cả trang bài viết: số đếm đọc từ cột của Post, cảm xúc của tôi + bình luận mới nhất lấy theo lô (IN postIds),
+    // không đụng tới các collection LAZY của từng bài -> không có N+1
+    private List<PostResponse> mapToFeedDTOs(List<Post> posts, String currentUsername) {
+        if (posts.isEmpty()) return new ArrayList<>();
+        List<Long> postIds = posts.stream().map(Post::getId).collect(Collectors.toList());
+
+        Map<Long, String> myReactions = new HashMap<>();
+        if (currentUsername != null) {
+            for (Object[] row : postRepository.findReactionsOfUser(postIds, currentUsername)) {
+                myReactions.put(((Number) row[0]).longValue(), (String) row[1]);
+            }
+        }
+
+        Map<Long, List<PostResponse.CommentDTO>> previews = new HashMap<>();
+        if (commentPreview > 0) {
+            for (Object[] row : commentRepository.findLatestPerPost(postIds, commentPreview)) {
+                String commenter = (String) row[4];
+                previews.computeIfAbsent(((Number) row[1]).longValue(), k -> new ArrayList<>())
+                        .add(new PostResponse.CommentDTO(
+                                ((Number) row[0]).longValue(),
+                                (String) row[2],
+                                commenter,
+                                row[5] != null ? (String) row[5] : commenter,
+                                (String) row[6],
+                                toLocalDateTime(row[3])
+                        ));
+            }
+        }
+
+        List<PostResponse> result = new ArrayList<>(posts.size());
+        for (Post post : posts) {
+            String myReaction = myReactions.get(post.getId());
+            result.add(PostResponse.builder()
+                    .id(post.getId())
+                    .content(post.getContent())
+                    .imageUrl(post.getImageUrl())
+                    .mediaType(post.getMediaType())
+                    .createdAt(post.getCreatedAt())
+                    .username(post.getUser().getUsername())
+                    .fullName(post.getUser().getFullName() != null ? post.getUser().getFullName() : post.getUser().getUsername())
+                    .userAvatar(post.getUser().getAvatar())
+                    .reactionCounts(post.getReactionCounts())
+                    .likeCount(post.getLikeCount())
+                    .myReaction(myReaction)
+                    .likedByMe(myReaction != null)
+                    .commentCount(post.getCommentCountOrZero())
+                    .backgroundTheme(post.getBackgroundTheme())
+                    .comments(previews.getOrDefault(post.getId(), new ArrayList<>()))
+                    .build());
+        }
+        return result;
+    }
+
+    // Cột timestamp của native query có thể về Timestamp hoặc LocalDateTime tùy driver
+    private static LocalDateTime toLocalDateTime(Object value) {
+        if (value instanceof Timestamp ts) return ts.toLocalDateTime();
+        return (LocalDateTime) value;
+    }
+
     // Helper map DTO
     private PostResponse mapToDTO(Post post, String currentUsername) { // <--- 1. Đổi tham số từ Long ID sang String Username
 
         // Lấy thông tin từ Map reactions ---
         Map<String, String> reactions = post.getReactions();
 
-        // Lấy số lượng (Hàm getLikeCount @Transient trong Entity đã tự tính size của map reactions)
+        // Lấy số lượng (Hàm getLikeCount @Transient trong Entity đọc từ các cột đếm)
         int likeCount = post.getLikeCount();
 
-        // Kiểm tra xem user hiện tại có trong map reactions không
-        boolean isLiked = false;
-        if (currentUsername != null && reactions != null) {
-            isLiked = reactions.containsKey(currentUsername);
-        }
+        // Cảm xúc của user hiện tại: tra đúng 1 dòng (post_id, username)
+        String myReaction = currentUsername != null
+                ? postRepository.findReactionOfUser(post.getId(), currentUsername).orElse(null)
+                : null;
+        boolean isLiked = myReaction != null;
         // ------------------------------------------------
 
-        List<Comment> comments = post.getComments();
-        List<PostResponse.CommentDTO> commentDTOS = new ArrayList<>();
-
-        if (comments != null) {
-            commentDTOS = comments.stream()
-                    .map(c -> new PostResponse.CommentDTO(
-                            c.getId(),
-                            c.getContent(),
-                            c.getUser().getUsername(),
-                            c.getUser().getFullName() != null ? c.getUser().getFullName() : c.getUser().getUsername(),
-                            c.getUser().getAvatar(),
-                            c.getCreatedAt()
-                    )).collect(Collectors.toList());
-        }
+        // Chỉ lấy trang bình luận mới nhất (1 câu, kèm người viết), không duyệt cả post.getComments()
+        List<PostResponse.CommentDTO> commentDTOS = post.getId() != null
+                ? loadCommentPage(post.getId(), null, DETAIL_COMMENT_PAGE_SIZE).getComments()
+                : new ArrayList<>();
 
         // DÙNG BUILDER (An toàn hơn dùng Constructor)
         return PostResponse.builder()
@@ -303,6 +432,9 @@ public class PostService {
                 .reactions(reactions)
                 .likeCount(likeCount)
                 .likedByMe(isLiked)
+                .reactionCounts(post.getReactionCounts())
+                .myReaction(myReaction)
+                .commentCount(post.getCommentCountOrZero())
 
                 .backgroundTheme(post.getBackgroundTheme())
 
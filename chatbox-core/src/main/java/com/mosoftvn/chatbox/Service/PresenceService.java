@@ -0,0 +1,197 @@
+package com.mosoftvn.chatbox.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Trạng thái online/offline giữ trong RAM, không ghi Postgres nữa.
+// - Online khi user có ít nhất 1 phiên WebSocket (connect/disconnect; phiên chết được broker phát hiện qua heartbeat)
+// - Trạng thái tự chọn (BUSY, AWAY...) chỉ áp dụng khi đang online
+// - Các thay đổi được gom lại, mỗi chu kỳ bắn 1 frame /topic/status (user bật/tắt liên tục chỉ tính trạng thái cuối)
+// - Nhiều instance: bật chat.presence.shared-store=mongo, mỗi node định kỳ ghi danh sách user của mình lên Mongo và đọc của node khác
+@Service
+public class PresenceService {
+
+    public static final String ONLINE = "ONLINE";
+    public static final String OFFLINE = "OFFLINE";
+
+    private static final String NODES_COLLECTION = "presence_nodes";
+
+    @Autowired
+    private SimpMessagingTemplate messagingTemplate;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${chat.presence.broadcast-interval-ms:1000}")
+    private long broadcastIntervalMs;
+
+    // none | mongo
+    @Value("${chat.presence.shared-store:none}")
+    private String sharedStore;
+
+    @Value("${chat.presence.sync-interval-seconds:10}")
+    private long syncIntervalSeconds;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    // username -> các sessionId đang mở trên node này
+    private final ConcurrentHashMap<String, Set<String>> sessionsByUser = new ConcurrentHashMap<>();
+    // username -> trạng thái tự chọn (không có = ONLINE)
+    private final ConcurrentHashMap<String, String> manualStatus = new ConcurrentHashMap<>();
+    // username -> trạng thái trên các node khác (chỉ dùng khi bật shared-store)
+    private volatile Map<String, String> remoteStatus = Map.of();
+
+    private final Set<String> dirtyUsers = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, String> lastBroadcast = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::broadcastChanges, broadcastIntervalMs, broadcastIntervalMs, TimeUnit.MILLISECONDS);
+
+        if (isShared()) {
+            // Bản ghi của node chết tự hết hạn sau 3 chu kỳ không cập nhật
+            mongoTemplate.indexOps(NODES_COLLECTION).createIndex(new Index().on("updatedAt", Sort.Direction.ASC)
+                    .expire(Duration.ofSeconds(syncIntervalSeconds * 3)));
+            scheduler.scheduleWithFixedDelay(this::syncSharedStore, 0, syncIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @EventListener
+    public void onConnected(SessionConnectedEvent event) {
+        Principal user = event.getUser();
+        String sessionId = (String) event.getMessage().getHeaders().get("simpSessionId");
+        if (user == null || sessionId == null) return;
+
+        sessionsByUser.computeIfAbsent(user.getName(), k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+        dirtyUsers.add(user.getName());
+    }
+
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        Principal user = event.getUser();
+        if (user == null) return;
+
+        sessionsByUser.computeIfPresent(user.getName(), (k, sessions) -> {
+            sessions.remove(event.getSessionId());
+            return sessions.isEmpty() ? null : sessions;
+        });
+        dirtyUsers.add(user.getName());
+    }
+
+    // User tự đổi trạng thái (ONLINE = bỏ trạng thái tự chọn)
+    public void setStatus(String username, String status) {
+        if (status == null || ONLINE.equals(status)) {
+            manualStatus.remove(username);
+        } else {
+            manualStatus.put(username, status);
+        }
+        dirtyUsers.add(username);
+    }
+
+    public String getStatus(String username) {
+        if (sessionsByUser.containsKey(username)) {
+            return manualStatus.getOrDefault(username, ONLINE);
+        }
+        return remoteStatus.getOrDefault(username, OFFLINE);
+    }
+
+    // Gom các thay đổi trong 1 chu kỳ thành 1 frame: [{username, status}, ...]
+    private void broadcastChanges() {
+        try {
+            if (dirtyUsers.isEmpty()) return;
+            List<Map<String, String>> updates = new ArrayList<>();
+            for (Iterator<String> it = dirtyUsers.iterator(); it.hasNext(); ) {
+                String username = it.next();
+                it.remove();
+                String status = getStatus(username);
+                // Không đổi so với lần bắn trước (VD: F5 trang = disconnect rồi connect lại) -> bỏ qua
+                if (!status.equals(lastBroadcast.put(username, status))) {
+                    updates.add(Map.of("username", username, "status", status));
+                }
+            }
+            if (!updates.isEmpty()) {
+                messagingTemplate.convertAndSend("/topic/status", updates);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Ghi trạng thái các user trên node này, đọc trạng thái của các node khác
+    private void syncSharedStore() {
+        try {
+            Map<String, String> local = new HashMap<>();
+            for (String username : sessionsByUser.keySet()) {
+                local.put(username, getStatus(username));
+            }
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(nodeId)),
+                    new Update().set("statuses", local).set("updatedAt", new Date()), NODES_COLLECTION);
+
+            Map<String, String> merged = new HashMap<>();
+            Date alive = new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(syncIntervalSeconds * 3));
+            Query others = Query.query(Criteria.where("_id").ne(nodeId).and("updatedAt").gte(alive));
+            for (Document node : mongoTemplate.find(others, Document.class, NODES_COLLECTION)) {
+                Document statuses = node.get("statuses", Document.class);
+                if (statuses == null) continue;
+                statuses.forEach((username, status) -> merged.merge(username, String.valueOf(status),
+                        (a, b) -> ONLINE.equals(a) ? a : b));
+            }
+
+            Map<String, String> previous = remoteStatus;
+            remoteStatus = merged;
+            // User đổi trạng thái ở node khác -> cần bắn lại từ góc nhìn node này
+            for (String username : merged.keySet()) {
+                if (!merged.get(username).equals(previous.get(username))) dirtyUsers.add(username);
+            }
+            for (String username : previous.keySet()) {
+                if (!merged.containsKey(username)) dirtyUsers.add(username);
+            }
+        } catch (Exception e) {
+            System.out.println("LOG: Đồng bộ presence lỗi: " + e.getMessage());
+        }
+    }
+
+    private boolean isShared() {
+        return "mongo".equalsIgnoreCase(sharedStore);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (isShared()) {
+            try {
+                mongoTemplate.remove(Query.query(Criteria.where("_id").is(nodeId)), NODES_COLLECTION);
+            } catch (Exception ignored) {
+            }
+        }
+    }
+}
@@ -1,14 +1,20 @@
 package com.mosoftvn.chatbox.Service;
 
+import com.mosoftvn.chatbox.DTO.UserDirectoryPage;
+import com.mosoftvn.chatbox.DTO.UserDirectoryView;
 import com.mosoftvn.chatbox.DTO.UserSummary;
 import com.mosoftvn.chatbox.Entity.User;
 import com.mosoftvn.chatbox.Repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.stream.Collectors;
 import java.util.Map;
 
@@ -22,33 +28,45 @@ public class UserService {
 
     @Autowired private VoucherService voucherService;
 
-    // 1. Lấy danh sách user (trừ bản thân)
+    @Autowired private PresenceService presenceService;
+
+    public static final int DIRECTORY_MAX_PAGE_SIZE = 100;
+
+    // 1. Lấy danh sách user (trừ bản thân) - projection, không nạp entity User + role
     public List<UserSummary> getAllUsersExcept(String username) {
-        return userRepository.findAll().stream()
-                .filter(u -> !u.getUsername().equals(username))
-                .map(u -> new UserSummary(
-                        u.getId(),
-                        u.getUsername(),
-                        u.getFullName(),
-                        u.getAvatar(),
-                        u.getStatus() != null ? u.getStatus() : "OFFLINE"
-                ))
+        return userRepository.findAllByUsernameNotOrderByUsernameAsc(username).stream()
+                .map(this::toSummary)
                 .collect(Collectors.toList());
     }
 
-    // 2. Cập nhật trạng thái Online/Offline
+    // 1b. Danh bạ phân trang, q = tiền tố username hoặc họ tên (bỏ trống = tất cả)
+    public UserDirectoryPage getDirectory(String username, String q, int page, int size) {
+        int pageSize = Math.max(1, Math.min(size, DIRECTORY_MAX_PAGE_SIZE));
+        PageRequest pageable = PageRequest.of(Math.max(page, 0), pageSize, Sort.by("username"));
+
+        Slice<UserDirectoryView> slice = (q == null || q.isBlank())
+                ? userRepository.findByUsernameNot(username, pageable)
+                : userRepository.searchByPrefix(username, likePrefix(q), pageable);
+
+        List<UserSummary> users = slice.getContent().stream().map(this::toSummary).collect(Collectors.toList());
+        return new UserDirectoryPage(users, slice.getNumber(), pageSize, slice.hasNext());
+    }
+
+    // Trạng thái lấy từ PresenceService (RAM), không đọc cột status
+    private UserSummary toSummary(UserDirectoryView u) {
+        return new UserSummary(u.getId(), u.getUsername(), u.getFullName(), u.getAvatar(),
+                presenceService.getStatus(u.getUsername()));
+    }
+
+    // Escape ký tự đặc biệt của LIKE (\ % _) rồi thêm % ở cuối -> chỉ khớp tiền tố
+    private static String likePrefix(String q) {
+        String lower = q.trim().toLowerCase(Locale.ROOT);
+        return lower.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    }
+
+    // 2. Cập nhật trạng thái Online/Offline (chỉ giữ trong RAM, PresenceService tự gom và bắn /topic/status)
     public void updateUserStatus(String username, String status) {
-        userRepository.findByUsername(username).ifPresent(user -> {
-            user.setStatus(status);
-            userRepository.save(user);
-
-            // Gửi thông báo Real-time cho mọi người
-            Map<String, String> updateMsg = Map.of(
-                    "username", username,
-                    "status", status
-            );
-            messagingTemplate.convertAndSend("/topic/status", updateMsg);
-        });
+        presenceService.setStatus(username, status);
     }
 
     // --- CÁC HÀM MỚI CẦN THÊM ĐỂ FIX LỖI ---
@@ -0,0 +1,159 @@
+package com.mosoftvn.chatbox.Service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mosoftvn.chatbox.Config.VerifiedTokenCache;
+import com.mosoftvn.chatbox.DTO.UserSnapshot;
+import com.mosoftvn.chatbox.Entity.User;
+import com.mosoftvn.chatbox.Repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Cache username -> UserSnapshot (id, role, enabled, avatar, fullName) để khỏi findByUsername mỗi request.
+// Phải gọi invalidate(username) mỗi khi sửa/xóa user. Nhiều instance: bật user.cache.invalidation=mongo,
+// lệnh xóa cache được ghi lên Mongo và các node khác định kỳ đọc về
+@Service
+public class UserSnapshotCache {
+
+    private static final String INVALIDATIONS_COLLECTION = "user_cache_invalidations";
+
+    @Autowired private UserRepository userRepository;
+    @Autowired private VerifiedTokenCache verifiedTokenCache;
+    @Autowired private MongoTemplate mongoTemplate;
+    @Autowired private MeterRegistry meterRegistry;
+
+    @Value("${user.cache.max-entries:10000}")
+    private long maxEntries;
+
+    @Value("${user.cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    // none | mongo
+    @Value("${user.cache.invalidation:none}")
+    private String invalidationChannel;
+
+    @Value("${user.cache.invalidation-poll-ms:2000}")
+    private long pollMs;
+
+    // Mỗi lần đọc lùi lại ngần này ms (lệnh ghi xong muộn / trùng mili giây), lệnh đã xử lý lọc theo _id
+    @Value("${user.cache.invalidation-overlap-ms:10000}")
+    private long overlapMs;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private Cache<String, UserSnapshot> cache;
+    private ScheduledExecutorService poller;
+    // Mốc "at" (giờ của Mongo server) mới nhất đã đọc. Lúc khởi động đọc lại cả collection
+    // (lệnh cũ tự hết hạn sau 1 giờ, cache còn rỗng nên xóa thừa cũng không sao)
+    private volatile Date lastPolled = new Date(0);
+    // _id lệnh đã xử lý trong cửa sổ overlap -> at (chỉ luồng poller dùng)
+    private final Map<Object, Date> seenInvalidations = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "user.snapshots");
+
+        if (isShared()) {
+            // Lệnh cũ tự xóa sau 1 giờ
+            mongoTemplate.indexOps(INVALIDATIONS_COLLECTION)
+                    .createIndex(new Index().on("at", Sort.Direction.ASC).expire(Duration.ofHours(1)));
+            poller = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "user-cache-invalidation");
+                t.setDaemon(true);
+                return t;
+            });
+            poller.scheduleWithFixedDelay(this::pollInvalidations, pollMs, pollMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Optional<UserSnapshot> get(String username) {
+        if (username == null) return Optional.empty();
+        UserSnapshot snapshot = cache.get(username, u -> userRepository.findByUsername(u).map(UserSnapshotCache::toSnapshot).orElse(null));
+        return Optional.ofNullable(snapshot);
+    }
+
+    // Gọi sau khi sửa/xóa user: xóa snapshot + token đã cache của user đó (ở mọi node nếu bật shared)
+    public void invalidate(String username) {
+        evictLocal(username);
+        if (isShared()) {
+            try {
+                // "at" lấy giờ của Mongo server ($currentDate), không phụ thuộc đồng hồ từng node
+                mongoTemplate.upsert(Query.query(Criteria.where("_id").is(new ObjectId())),
+                        new Update().set("username", username).set("node", nodeId).currentDate("at"),
+                        INVALIDATIONS_COLLECTION);
+            } catch (Exception e) {
+                System.out.println("LOG: Không gửi được lệnh xóa cache user: " + e.getMessage());
+            }
+        }
+    }
+
+    private void evictLocal(String username) {
+        cache.invalidate(username);
+        verifiedTokenCache.invalidateUser(username);
+    }
+
+    private void pollInvalidations() {
+        try {
+            Date newest = lastPolled;
+            Date since = new Date(newest.getTime() - overlapMs);
+            Query query = Query.query(Criteria.where("at").gt(since).and("node").ne(nodeId))
+                    .with(Sort.by(Sort.Direction.ASC, "at"));
+            for (Document doc : mongoTemplate.find(query, Document.class, INVALIDATIONS_COLLECTION)) {
+                Date at = doc.getDate("at");
+                if (at == null) continue;
+                if (seenInvalidations.putIfAbsent(doc.get("_id"), at) == null) {
+                    evictLocal(doc.getString("username"));
+                }
+                if (at.after(newest)) newest = at;
+            }
+            lastPolled = newest;
+            // Quên các lệnh đã ra khỏi cửa sổ đọc lại
+            Date cutoff = new Date(newest.getTime() - overlapMs);
+            seenInvalidations.values().removeIf(at -> at.before(cutoff));
+        } catch (Exception e) {
+            System.out.println("LOG: Đọc lệnh xóa cache user lỗi: " + e.getMessage());
+        }
+    }
+
+    private boolean isShared() {
+        return "mongo".equalsIgnoreCase(invalidationChannel);
+    }
+
+    private static UserSnapshot toSnapshot(User user) {
+        String role = user.getRole() != null ? user.getRole().getName() : "ROLE_USER";
+        return new UserSnapshot(user.getId(), user.getUsername(), role, user.isEnabled(), user.getAvatar(), user.getFullName());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (poller != null) poller.shutdownNow();
+    }
+}
@@ -0,0 +1,108 @@
+package com.mosoftvn.chatbox.Config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mosoftvn.chatbox.Document.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// So sánh kích thước payload JSON mặc định và chế độ compact
+class CompactWireInterceptorTest {
+
+    private static final int BENCH_WARMUP = 2_000;
+    private static final int BENCH_ROUNDS = 20_000;
+
+    private final CompactWireInterceptor interceptor = new CompactWireInterceptor();
+    private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @Test
+    void compactDropsNullFieldsOfChatMessage() throws Exception {
+        byte[] json = mapper.writeValueAsBytes(sampleMessage());
+        byte[] compact = interceptor.compact(json);
+
+        String text = new String(compact, StandardCharsets.UTF_8);
+        assertThat(compact.length).isLessThan(json.length);
+        assertThat(text).contains("\"content\"").doesNotContain("null").doesNotContain("\"fileUrl\"");
+        // false / {} là giá trị thật, không được bỏ
+        assertThat(mapper.readTree(compact).path("pinned").isBoolean()).isTrue();
+        assertThat(mapper.readTree(compact).path("reactions").isObject()).isTrue();
+    }
+
+    @Test
+    void messageUpdatesAreSentUnchanged() throws Exception {
+        byte[] json = mapper.writeValueAsBytes(Map.of("type", "MSG_UPDATE", "msg", Map.of("id", "1", "pinned", false)));
+
+        assertThat(interceptor.compact(json)).isSameAs(json);
+    }
+
+    // Gỡ cảm xúc cuối cùng của bài: reactionCounts rỗng + likeCount 0 vẫn phải tới client
+    @Test
+    void lastReactionRemovedKeepsEmptyCountsInPostStats() throws Exception {
+        Map<String, Object> reactor = new HashMap<>();
+        reactor.put("username", "alice");
+        reactor.put("reaction", null);
+        byte[] json = mapper.writeValueAsBytes(Map.of("type", "POST_STATS", "postId", 7,
+                "reactionCounts", Map.of(), "likeCount", 0, "reactions", List.of(reactor)));
+
+        JsonNode frame = mapper.readTree(interceptor.compact(json));
+
+        assertThat(frame.path("reactionCounts").isObject()).isTrue();
+        assertThat(frame.path("reactionCounts").isEmpty()).isTrue();
+        assertThat(frame.path("likeCount").asInt(-1)).isEqualTo(0);
+        assertThat(frame.path("reactions").get(0).path("username").asText()).isEqualTo("alice");
+        assertThat(frame.path("reactions").get(0).has("reaction")).isFalse();
+    }
+
+    // Benchmark nhỏ: số byte trên dây và thời gian serialize (JSON mặc định vs JSON + compact)
+    @Test
+    void benchmarkBytesAndSerializeTime() throws Exception {
+        ChatMessage msg = sampleMessage();
+        msg.getReactions().put("bob", "LIKE");
+
+        byte[] json = mapper.writeValueAsBytes(msg);
+        byte[] compact = interceptor.compact(json);
+        assertThat(compact.length).isLessThan(json.length);
+        // Các trường null (file, type...) chiếm phần đáng kể của 1 tin nhắn thường
+        assertThat((double) compact.length / json.length).isLessThan(0.9);
+
+        for (int i = 0; i < BENCH_WARMUP; i++) {
+            interceptor.compact(mapper.writeValueAsBytes(msg));
+        }
+        long plainNanos = timeNanos(() -> mapper.writeValueAsBytes(msg));
+        long compactNanos = timeNanos(() -> interceptor.compact(mapper.writeValueAsBytes(msg)));
+
+        // Thời gian chỉ báo cáo để so sánh (compact = serialize + parse lại + ghi lại), không assert vì CI chạy nhanh chậm khác nhau
+        System.out.printf("Bytes/frame: JSON %d, compact %d (%.0f%%)%n",
+                json.length, compact.length, 100.0 * compact.length / json.length);
+        System.out.printf("Serialize/frame: JSON %.2f us, JSON + compact %.2f us (x%.1f)%n",
+                plainNanos / 1000.0 / BENCH_ROUNDS, compactNanos / 1000.0 / BENCH_ROUNDS, (double) compactNanos / plainNanos);
+    }
+
+    private long timeNanos(ThrowingRunnable serialize) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCH_ROUNDS; i++) {
+            serialize.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private ChatMessage sampleMessage() {
+        ChatMessage msg = new ChatMessage("alice", "bob", "Chào bạn, tối nay đi ăn không?");
+        msg.setId("65f1c0ffee0000000000abcd");
+        msg.setTimestamp(LocalDateTime.of(2024, 5, 1, 20, 0));
+        msg.setConversationId(ChatMessage.directConversationId("alice", "bob"));
+        return msg;
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+}
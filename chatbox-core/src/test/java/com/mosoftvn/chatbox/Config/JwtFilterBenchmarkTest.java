@@ -0,0 +1,133 @@
+package com.mosoftvn.chatbox.Config;
+
+import com.mosoftvn.chatbox.Entity.Role;
+import com.mosoftvn.chatbox.Entity.User;
+import com.mosoftvn.chatbox.Repository.UserRepository;
+import com.mosoftvn.chatbox.Service.UserSnapshotCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+// Benchmark nhỏ chi phí filter JWT cho 1 request: đường cũ (parse token 2 lần + đọc user từ DB mỗi request)
+// vs đường mới (token đã xác thực nằm trong VerifiedTokenCache). DB giả lập bằng độ trễ cố định; chỉ báo cáo, không assert thời gian
+class JwtFilterBenchmarkTest {
+
+    private static final int WARMUP = 200;
+    private static final int ROUNDS = 2_000;
+    private static final long DB_ROUND_TRIP_MS = 1;
+
+    private final AtomicInteger dbLookups = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void cachedFilterVersusParseAndLookupEveryRequest() throws Exception {
+        UserRepository userRepository = mock(UserRepository.class);
+        doAnswer(inv -> {
+            Thread.sleep(DB_ROUND_TRIP_MS);
+            dbLookups.incrementAndGet();
+            return Optional.of(user(inv.getArgument(0)));
+        }).when(userRepository).findByUsername(anyString());
+
+        JwtUtil jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secretKey", "benchmark-secret-key-benchmark-secret-key-0123456789");
+        ReflectionTestUtils.setField(jwtUtil, "jwtExpiration", 3_600_000L);
+        jwtUtil.init();
+        String token = jwtUtil.generateToken("alice", "ROLE_USER");
+
+        JwtAuthenticationFilter filter = newFilter(jwtUtil, userRepository);
+        FilterChain chain = (req, res) -> { };
+
+        // Đường cũ (như filter trước đây): extractUsername (parse) + findByUsername (DB) + validateToken (parse lại để so tên + hạn)
+        Runnable oldPath = () -> {
+            String username = jwtUtil.extractUsername(token);
+            User user = userRepository.findByUsername(username).orElseThrow();
+            assertThat(jwtUtil.validateToken(token, user.getUsername())).isTrue();
+        };
+        Runnable cachedPath = () -> {
+            SecurityContextHolder.clearContext();
+            MockHttpServletRequest request = new MockHttpServletRequest();
+            request.addHeader("Authorization", "Bearer " + token);
+            try {
+                filter.doFilterInternal(request, new MockHttpServletResponse(), chain);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+
+        for (int i = 0; i < WARMUP; i++) {
+            oldPath.run();
+            cachedPath.run();
+        }
+        dbLookups.set(0);
+        long oldNanos = time(oldPath);
+        int oldLookups = dbLookups.getAndSet(0);
+        long cachedNanos = time(cachedPath);
+        int cachedLookups = dbLookups.get();
+
+        // Đúng chức năng: filter vẫn gắn user, và với token đã cache thì không đọc DB lần nào
+        assertThat(SecurityContextHolder.getContext().getAuthentication().getName()).isEqualTo("alice");
+        assertThat(oldLookups).isEqualTo(ROUNDS);
+        assertThat(cachedLookups).isZero();
+
+        System.out.printf("JWT filter/request (DB giả lập %dms): cũ %.1f us (%d lần đọc DB), cache %.1f us (%d lần đọc DB)%n",
+                DB_ROUND_TRIP_MS, oldNanos / 1000.0 / ROUNDS, oldLookups, cachedNanos / 1000.0 / ROUNDS, cachedLookups);
+    }
+
+    private long time(Runnable path) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            path.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private JwtAuthenticationFilter newFilter(JwtUtil jwtUtil, UserRepository userRepository) {
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache();
+        ReflectionTestUtils.setField(verifiedTokenCache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(verifiedTokenCache, "maxEntries", 1_000L);
+        ReflectionTestUtils.setField(verifiedTokenCache, "ttlSeconds", 300L);
+        verifiedTokenCache.init();
+
+        UserSnapshotCache userSnapshotCache = new UserSnapshotCache();
+        ReflectionTestUtils.setField(userSnapshotCache, "userRepository", userRepository);
+        ReflectionTestUtils.setField(userSnapshotCache, "verifiedTokenCache", verifiedTokenCache);
+        ReflectionTestUtils.setField(userSnapshotCache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(userSnapshotCache, "maxEntries", 1_000L);
+        ReflectionTestUtils.setField(userSnapshotCache, "ttlSeconds", 600L);
+        ReflectionTestUtils.setField(userSnapshotCache, "invalidationChannel", "none");
+        userSnapshotCache.init();
+
+        JwtAuthenticationFilter filter = new JwtAuthenticationFilter();
+        ReflectionTestUtils.setField(filter, "jwtUtil", jwtUtil);
+        ReflectionTestUtils.setField(filter, "userSnapshotCache", userSnapshotCache);
+        ReflectionTestUtils.setField(filter, "verifiedTokenCache", verifiedTokenCache);
+        return filter;
+    }
+
+    private static User user(String username) {
+        Role role = new Role();
+        role.setName("ROLE_USER");
+        User user = new User();
+        user.setUsername(username);
+        user.setEnabled(true);
+        user.setRole(role);
+        return user;
+    }
+}
@@ -0,0 +1,99 @@
+package com.mosoftvn.chatbox.Controller;
+
+import com.mosoftvn.chatbox.Document.ChatMessage;
+import com.mosoftvn.chatbox.Repository.ChatMessageRepository;
+import com.mosoftvn.chatbox.Service.BotReplyService;
+import com.mosoftvn.chatbox.Service.ChatMessageWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.security.Principal;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+// Benchmark nhỏ: gửi N tin qua processMessage, lưu đồng bộ vs write-behind.
+// Mongo giả lập bằng độ trễ cố định mỗi lần gọi (1 round-trip), chỉ báo cáo thông lượng, không assert thời gian
+class ChatWriteBehindBenchmarkTest {
+
+    private static final int MESSAGES = 1_000;
+    private static final long MONGO_ROUND_TRIP_MS = 1;
+
+    private final AtomicInteger saveCalls = new AtomicInteger();
+    private final AtomicInteger insertCalls = new AtomicInteger();
+    private final AtomicInteger insertedDocs = new AtomicInteger();
+
+    @Test
+    void syncVersusWriteBehindThroughput() throws Exception {
+        double syncRate = publish(false);
+        assertThat(saveCalls.get()).isEqualTo(MESSAGES);
+
+        double writeBehindRate = publish(true);
+        // Tất cả tin đều được ghi, gom thành ít lần gọi Mongo hơn số tin
+        assertThat(insertedDocs.get()).isEqualTo(MESSAGES);
+        assertThat(insertCalls.get()).isLessThan(MESSAGES);
+
+        System.out.printf("processMessage x%d (Mongo giả lập %dms/lần): đồng bộ %.0f tin/s, write-behind %.0f tin/s "
+                        + "(%d lần insert, trung bình %.1f tin/lô)%n",
+                MESSAGES, MONGO_ROUND_TRIP_MS, syncRate, writeBehindRate,
+                insertCalls.get(), (double) insertedDocs.get() / insertCalls.get());
+    }
+
+    // Trả về số tin/giây tính tới khi mọi tin đã được ghi (write-behind: gồm cả thời gian vét hàng đợi)
+    private double publish(boolean writeBehind) throws Exception {
+        ChatController controller = newController(writeBehind);
+        ChatMessageWriter writer = (ChatMessageWriter) ReflectionTestUtils.getField(controller, "chatMessageWriter");
+        Principal alice = () -> "alice";
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            controller.processMessage(new ChatMessage(null, "bob", "Tin nhắn số " + i), alice);
+        }
+        writer.shutdown();
+        long elapsed = System.nanoTime() - start;
+        return MESSAGES / (elapsed / 1e9);
+    }
+
+    private ChatController newController(boolean writeBehind) {
+        ChatMessageRepository repository = mock(ChatMessageRepository.class);
+        doAnswer(inv -> {
+            Thread.sleep(MONGO_ROUND_TRIP_MS);
+            saveCalls.incrementAndGet();
+            return inv.getArgument(0);
+        }).when(repository).save(any(ChatMessage.class));
+
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        doAnswer(inv -> {
+            Thread.sleep(MONGO_ROUND_TRIP_MS);
+            Collection<?> batch = inv.getArgument(0);
+            insertCalls.incrementAndGet();
+            insertedDocs.addAndGet(batch.size());
+            return batch;
+        }).when(mongoTemplate).insert(anyCollection(), eq(ChatMessage.class));
+
+        ChatMessageWriter writer = new ChatMessageWriter();
+        ReflectionTestUtils.setField(writer, "chatMessageRepository", repository);
+        ReflectionTestUtils.setField(writer, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(writer, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(writer, "writeBehind", writeBehind);
+        ReflectionTestUtils.setField(writer, "queueCapacity", MESSAGES);
+        ReflectionTestUtils.setField(writer, "batchSize", 500);
+        ReflectionTestUtils.setField(writer, "flushIntervalMs", 50L);
+        writer.init();
+
+        ChatController controller = new ChatController();
+        ReflectionTestUtils.setField(controller, "messagingTemplate", mock(SimpMessagingTemplate.class));
+        ReflectionTestUtils.setField(controller, "botReplyService", mock(BotReplyService.class));
+        ReflectionTestUtils.setField(controller, "chatMessageWriter", writer);
+        return controller;
+    }
+}
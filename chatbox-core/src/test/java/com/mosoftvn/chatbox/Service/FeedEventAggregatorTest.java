@@ -0,0 +1,75 @@
+package com.mosoftvn.chatbox.Service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Nhiều sự kiện của cùng 1 bài trong 1 cửa sổ -> 1 frame POST_STATS
+class FeedEventAggregatorTest {
+
+    private final List<Map<?, ?>> frames = new CopyOnWriteArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private FeedEventAggregator aggregator;
+
+    @BeforeEach
+    void setUp() {
+        SimpMessagingTemplate template = new SimpMessagingTemplate((Message<?> message, long timeout) -> {
+            frames.add((Map<?, ?>) message.getPayload());
+            return true;
+        });
+
+        aggregator = new FeedEventAggregator();
+        ReflectionTestUtils.setField(aggregator, "messagingTemplate", template);
+        ReflectionTestUtils.setField(aggregator, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(aggregator, "reactionWindowMs", 50L);
+        ReflectionTestUtils.setField(aggregator, "likeWindowMs", 50L);
+        ReflectionTestUtils.setField(aggregator, "commentWindowMs", 50L);
+        ReflectionTestUtils.setField(aggregator, "editWindowMs", 50L);
+        ReflectionTestUtils.setField(aggregator, "maxPendingPosts", 100);
+        ReflectionTestUtils.setField(aggregator, "maxCommentsPerFrame", 50);
+        ReflectionTestUtils.setField(aggregator, "maxReactorsPerFrame", 100);
+        aggregator.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        aggregator.shutdown();
+    }
+
+    @Test
+    void burstOfReactionsBecomesOneFrame() throws Exception {
+        aggregator.reactionChanged(1L, Map.of("LIKE", 1L), 1, "a", "LIKE");
+        aggregator.reactionChanged(1L, Map.of("LIKE", 2L), 2, "b", "LIKE");
+        aggregator.reactionChanged(1L, Map.of("LIKE", 1L, "LOVE", 1L), 2, "a", "LOVE");
+        aggregator.commentAdded(1L, Map.of("id", 10L, "content", "hay"));
+
+        Thread.sleep(300);
+
+        assertThat(frames).hasSize(1);
+        Map<?, ?> frame = frames.get(0);
+        assertThat(frame.get("type")).isEqualTo("POST_STATS");
+        assertThat(frame.get("reactionCounts")).isEqualTo(Map.of("LIKE", 1L, "LOVE", 1L));
+        assertThat((List<?>) frame.get("reactions")).hasSize(2);
+        assertThat((List<?>) frame.get("comments")).hasSize(1);
+        assertThat(meterRegistry.counter("feed.frames.saved").count()).isEqualTo(3.0);
+    }
+
+    @Test
+    void deleteDropsPendingStatsAndSendsImmediately() {
+        aggregator.reactionChanged(2L, Map.of("LIKE", 1L), 1, "a", "LIKE");
+        aggregator.postDeleted(2L);
+
+        assertThat(frames).hasSize(1);
+        assertThat(frames.get(0).get("type")).isEqualTo("POST_DELETED");
+    }
+}
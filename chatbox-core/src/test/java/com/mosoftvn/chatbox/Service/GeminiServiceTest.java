@@ -0,0 +1,138 @@
+package com.mosoftvn.chatbox.Service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// Chạy GeminiService với server giả lập Google (không cần API key / mạng)
+class GeminiServiceTest {
+
+    private HttpServer stub;
+    private GeminiService geminiService;
+    private final AtomicInteger generateCalls = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        // Lần gọi đầu trả 503 để kiểm tra cơ chế thử lại
+        stub.createContext("/models/test-model:generateContent", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            if (generateCalls.incrementAndGet() == 1) {
+                respond(exchange, 503, "{\"error\":{\"message\":\"overloaded\"}}");
+            } else {
+                respond(exchange, 200, "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Xin chào\"}]}}]}");
+            }
+        });
+
+        stub.createContext("/models/test-model:streamGenerateContent", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            String sse = "data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Xin \"}]}}]}\n\n" +
+                    "data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"chào \"}]}}]}\n\n" +
+                    "data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"bạn\"}]}}]}\n\n";
+            respond(exchange, 200, sse);
+        });
+        stub.start();
+
+        AIResponseCache responseCache = new AIResponseCache();
+        ReflectionTestUtils.setField(responseCache, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(responseCache, "maxEntries", 100L);
+        ReflectionTestUtils.setField(responseCache, "ttlSeconds", 60L);
+        responseCache.init();
+
+        geminiService = new GeminiService();
+        ReflectionTestUtils.setField(geminiService, "responseCache", responseCache);
+        ReflectionTestUtils.setField(geminiService, "apiKey", "test-key");
+        ReflectionTestUtils.setField(geminiService, "baseUrl", "http://127.0.0.1:" + stub.getAddress().getPort());
+        ReflectionTestUtils.setField(geminiService, "modelId", "test-model");
+        ReflectionTestUtils.setField(geminiService, "connectTimeoutMs", 1000L);
+        ReflectionTestUtils.setField(geminiService, "requestTimeoutMs", 5000L);
+        ReflectionTestUtils.setField(geminiService, "maxAttempts", 3);
+        ReflectionTestUtils.setField(geminiService, "backoffMs", 10L);
+        geminiService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        stub.stop(0);
+    }
+
+    @Test
+    void callGeminiRetriesOverloadedResponses() {
+        assertThat(geminiService.callGemini("hello")).isEqualTo("Xin chào");
+        assertThat(generateCalls.get()).isEqualTo(2);
+    }
+
+    @Test
+    void callGeminiServesRepeatedPromptsFromCache() {
+        assertThat(geminiService.callGemini("hello")).isEqualTo("Xin chào");
+        assertThat(geminiService.callGemini("  HELLO ")).isEqualTo("Xin chào");
+        assertThat(generateCalls.get()).isEqualTo(2);
+
+        // Tắt cache -> gọi lại Google
+        assertThat(geminiService.callGemini("hello", false)).isEqualTo("Xin chào");
+        assertThat(generateCalls.get()).isEqualTo(3);
+    }
+
+    @Test
+    void streamAsyncForwardsEachChunk() {
+        List<String> deltas = new ArrayList<>();
+        String full = geminiService.streamAsync(geminiService.createBodyTextOnly("hello"), deltas::add).join();
+
+        assertThat(deltas).containsExactly("Xin ", "chào ", "bạn");
+        assertThat(full).isEqualTo("Xin chào bạn");
+    }
+
+    // Google gửi 1 đoạn rồi im lặng -> hủy sau stream-idle-ms, không treo mãi
+    @Test
+    void streamAsyncFailsWhenStreamStalls() {
+        stub.createContext("/models/stall-model:streamGenerateContent", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write("data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Xin \"}]}}]}\n\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            try {
+                Thread.sleep(2_000);
+            } catch (InterruptedException ignored) {
+            }
+            exchange.close();
+        });
+        ReflectionTestUtils.setField(geminiService, "modelId", "stall-model");
+        ReflectionTestUtils.setField(geminiService, "streamIdleTimeoutMs", 200L);
+
+        List<String> deltas = new ArrayList<>();
+        CompletableFuture<String> future = geminiService.streamAsync(geminiService.createBodyTextOnly("hello"), deltas::add);
+
+        assertThatThrownBy(() -> future.get(3, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(GeminiService.GeminiException.class);
+        assertThat(deltas).containsExactly("Xin ");
+    }
+
+    private static void respond(com.sun.net.httpserver.HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
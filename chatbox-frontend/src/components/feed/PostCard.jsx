@@ -6,7 +6,7 @@ import {
 } from '@ant-design/icons';
 import { useNavigate } from 'react-router-dom';
 import { useChat } from '../../context/ChatContext';
-import { getAvatarUrl } from '../../utils/common';
+import { getAvatarUrl, applyReactionUpdate, applyPostStats, hasReactionStats } from '../../utils/common';
 import api from '../../services/api';
 import { useSettings } from "../../context/SettingsContext.jsx";
 
@@ -36,6 +36,15 @@ const POST_THEMES = [
     { id: 'neon', style: { background: 'linear-gradient(to right, #12c2e9, #c471ed, #f64f59)', color: '#fff' }, icon: 'fa-bolt' }
 ];
 
+// Đếm cảm xúc theo loại từ map username -> loại (bài chi tiết vẫn trả map đầy đủ)
+const countReactions = (reactions) => {
+    const counts = {};
+    Object.values(reactions || {}).forEach(type => { counts[type] = (counts[type] || 0) + 1; });
+    return counts;
+};
+
+const sumCounts = (counts) => Object.values(counts || {}).reduce((a, b) => a + b, 0);
+
 const PostCard = ({ post, onRemove }) => {
     // console.log("Post ID:", post.id, "Theme:", post.backgroundTheme);
     const navigate = useNavigate();
@@ -53,11 +62,16 @@ const PostCard = ({ post, onRemove }) => {
     }), [t]);
 
     // --- STATE ---
+    // Feed chỉ trả số đếm theo loại + cảm xúc của mình; map đầy đủ (để hiện tên người thả) chỉ có ở trang chi tiết
     const [reactions, setReactions] = useState(post.reactions || {});
-    const [likeCount, setLikeCount] = useState(post.likeCount || 0);
-    const myReactionType = reactions[currentUser];
+    const [reactionCounts, setReactionCounts] = useState(post.reactionCounts || countReactions(post.reactions));
+    const [myReactionType, setMyReactionType] = useState(post.myReaction ?? (post.reactions || {})[currentUser]);
+    const likeCount = sumCounts(reactionCounts);
 
     const [showAllComments, setShowAllComments] = useState(false);
+    // Bình luận cũ hơn tải thêm theo trang (bài chỉ kèm vài bình luận mới nhất)
+    const [olderComments, setOlderComments] = useState([]);
+    const [loadingOlder, setLoadingOlder] = useState(false);
     const [commentInput, setCommentInput] = useState("");
     const [loadingComment, setLoadingComment] = useState(false);
 
@@ -70,33 +84,56 @@ const PostCard = ({ post, onRemove }) => {
     // --- EFFECTS ---
     useEffect(() => {
         setReactions(post.reactions || {});
-        setLikeCount(post.likeCount || 0);
+        setReactionCounts(post.reactionCounts || countReactions(post.reactions));
+        setMyReactionType(post.myReaction ?? (post.reactions || {})[currentUser]);
         if (!isEditing) setEditContent(post.content);
     }, [post]);
 
     useEffect(() => {
         if (feedUpdate && String(feedUpdate.postId) === String(post.id)) {
             if (feedUpdate.type === 'POST_REACTION_UPDATE') {
-                setReactions(feedUpdate.reactions || {});
-                setLikeCount(feedUpdate.likeCount);
+                const updated = applyReactionUpdate(
+                    { reactions: post.reactions ? reactions : undefined, myReaction: myReactionType }, feedUpdate, currentUser);
+                setReactions(updated.reactions || {});
+                setReactionCounts(updated.reactionCounts);
+                setMyReactionType(updated.myReaction || undefined);
+            }
+            if (feedUpdate.type === 'POST_STATS' && hasReactionStats(feedUpdate)) {
+                const updated = applyPostStats(
+                    { reactions: post.reactions ? reactions : undefined, myReaction: myReactionType }, feedUpdate, currentUser);
+                setReactions(updated.reactions || {});
+                setReactionCounts(updated.reactionCounts);
+                setMyReactionType(updated.myReaction || undefined);
             }
         }
-    }, [feedUpdate, post.id]);
+    }, [feedUpdate, post.id, currentUser]);
 
     // --- HANDLERS (Like, Comment, Delete...) ---
     const handleReact = async (type) => {
         const oldReactions = { ...reactions };
         const newReactions = { ...reactions };
-        if (myReactionType === type) delete newReactions[currentUser];
-        else newReactions[currentUser] = type;
+        const oldCounts = { ...reactionCounts };
+        const newCounts = { ...reactionCounts };
+        const oldMine = myReactionType;
+
+        if (myReactionType) newCounts[myReactionType] = Math.max(0, (newCounts[myReactionType] || 0) - 1);
+        if (myReactionType === type) {
+            delete newReactions[currentUser];
+            setMyReactionType(undefined);
+        } else {
+            newReactions[currentUser] = type;
+            newCounts[type] = (newCounts[type] || 0) + 1;
+            setMyReactionType(type);
+        }
 
         setReactions(newReactions);
-        setLikeCount(Object.keys(newReactions).length);
+        setReactionCounts(newCounts);
 
         try { await api.post(`/posts/${post.id}/react`, { type }); }
         catch (error) {
             setReactions(oldReactions);
-            setLikeCount(Object.keys(oldReactions).length);
+            setReactionCounts(oldCounts);
+            setMyReactionType(oldMine);
             message.error(t('connectionError') || "Lỗi kết nối!");
         }
     };
@@ -205,6 +242,7 @@ const PostCard = ({ post, onRemove }) => {
     );
 
     const reactionTooltipContent = useMemo(() => {
+        // Chỉ có danh sách tên khi đã nạp map đầy đủ (trang chi tiết)
         const names = Object.keys(reactions).map(uname => {
             if (uname === currentUser) return t('you');
             const u = users.find(x => x.username === uname);
@@ -235,9 +273,9 @@ const PostCard = ({ post, onRemove }) => {
 
     const reactionSummary = useMemo(() => {
         if (likeCount === 0) return null;
-        const counts = {};
-        Object.values(reactions).forEach(type => { counts[type] = (counts[type] || 0) + 1; });
-        const topTypes = Object.keys(counts).sort((a, b) => counts[b] - counts[a]).slice(0, 3);
+        const counts = reactionCounts;
+        const topTypes = Object.keys(counts).filter(type => counts[type] > 0 && REACTION_ICONS[type])
+            .sort((a, b) => counts[b] - counts[a]).slice(0, 3);
 
         return (
             <div style={{ display: 'flex', alignItems: 'center', gap: 5, marginBottom: 10, paddingLeft: 15 }}>
@@ -255,7 +293,7 @@ const PostCard = ({ post, onRemove }) => {
                 </Tooltip>
             </div>
         );
-    }, [reactions, likeCount, reactionTooltipContent, REACTION_ICONS]);
+    }, [reactionCounts, likeCount, reactionTooltipContent, REACTION_ICONS]);
 
     const menuItems = [
         { key: 'edit', label: t('editPost'), icon: <EditOutlined />, onClick: () => setIsEditing(true) },
@@ -296,7 +334,25 @@ const PostCard = ({ post, onRemove }) => {
         </div>
     );
 
-    const commentsToShow = showAllComments ? post.comments : post.comments.slice(0, 2);
+    // Feed chỉ kèm vài bình luận mới nhất, commentCount là tổng thật
+    const comments = [...olderComments, ...(post.comments || [])];
+    const commentCount = post.commentCount ?? comments.length;
+    const commentsToShow = showAllComments ? comments : comments.slice(-2);
+
+    // Đã hiện hết phần đang có mà server còn -> tải trang cũ hơn (cursor = bình luận cũ nhất đang có)
+    const handleViewMoreComments = async () => {
+        if (!showAllComments && comments.length > 2) { setShowAllComments(true); return; }
+        const oldest = comments[0];
+        setLoadingOlder(true);
+        try {
+            const res = await api.get(`/posts/${post.id}/comments`, {
+                params: { size: 20, before: oldest ? `${oldest.createdAt}_${oldest.id}` : undefined }
+            });
+            setOlderComments(prev => [...res.data.comments, ...prev]);
+            setShowAllComments(true);
+        } catch (e) { message.error("Lỗi tải bình luận"); }
+        finally { setLoadingOlder(false); }
+    };
 
     // --- MAIN RENDER ---
     return (
@@ -318,7 +374,7 @@ const PostCard = ({ post, onRemove }) => {
 
                 <Tooltip title={commentTooltipContent ? `${t('commentedBy')} ${commentTooltipContent}` : t('noCommentYet')}>
                     <Button type="text" key="comment" icon={<CommentOutlined />} onClick={handleFocusComment} style={{ color: 'var(--text-secondary)' }}>
-                        {post.comments.length > 0 ? t('commentCount').replace('{{count}}', post.comments.length) : t('comment')}
+                        {commentCount > 0 ? t('commentCount').replace('{{count}}', commentCount) : t('comment')}
                     </Button>
                 </Tooltip>
             ]}
@@ -353,9 +409,10 @@ const PostCard = ({ post, onRemove }) => {
                     )}
                 />
 
-                {post.comments.length > 2 && !showAllComments && (
-                    <Button type="link" onClick={() => setShowAllComments(true)} style={{ paddingLeft: 0, fontSize: '12px', color: '#1890ff' }}>
-                        {t('viewMoreComments').replace('{{count}}', post.comments.length - 2)}
+                {commentCount > commentsToShow.length && (
+                    <Button type="link" style={{ paddingLeft: 0, fontSize: '12px', color: '#1890ff' }}
+                            loading={loadingOlder} onClick={handleViewMoreComments}>
+                        {t('viewMoreComments').replace('{{count}}', commentCount - commentsToShow.length)}
                     </Button>
                 )}
 
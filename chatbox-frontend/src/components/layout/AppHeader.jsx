@@ -88,6 +88,7 @@ const AppHeader = () => {
     const {
         currentUser, currentFullName, currentAvatar, logoutUser, updateUserStatus, myStatus,
         notifications, unreadCount, markNotificationsRead,
+        hasMoreNotifications, loadMoreNotifications,
         deleteNotification, clearAllNotifications, markOneRead,
         myBalance, myTotalDeposited,
         celebrationData, setCelebrationData
@@ -368,6 +369,11 @@ const AppHeader = () => {
                         />
                     </List.Item>
                 )}
+                loadMore={hasMoreNotifications && (
+                    <div style={{ textAlign: 'center', padding: 10 }}>
+                        <Button type="link" size="small" onClick={loadMoreNotifications}>{t('loadMoreNotifications')}</Button>
+                    </div>
+                )}
             />
         </div>
     );
@@ -83,9 +83,9 @@ const DepositModal = ({ visible, onClose, onSuccess }) => {
             const client = Stomp.over(socket);
             client.debug = () => {};
 
-            client.connect({}, () => {
+            client.connect({ Authorization: `Bearer ${localStorage.getItem('token')}` }, () => {
                 stompClientRef.current = client;
-                subscriptionRef.current = client.subscribe(`/user/${currentUser}/queue/payment`, (msg) => {
+                subscriptionRef.current = client.subscribe('/user/queue/payment', (msg) => {
                     try {
                         const body = JSON.parse(msg.body);
                         if (body.status === 'SUCCESS' && body.transactionCode === transaction?.transactionCode) {
@@ -44,6 +44,8 @@ export const ChatProvider = ({ children }) => {
 
     const [notifications, setNotifications] = useState([]);
     const [unreadCount, setUnreadCount] = useState(0);
+    // Cursor trang thông báo kế tiếp (null = đã tải hết)
+    const [notiCursor, setNotiCursor] = useState(null);
     const [feedUpdate, setFeedUpdate] = useState(null);
     const [isConnected, setIsConnected] = useState(false);
 
@@ -51,6 +53,8 @@ export const ChatProvider = ({ children }) => {
     const stompClientRef = useRef(null);
     const subscribedGroupsRef = useRef(new Set());
     const processedNotiIdsRef = useRef(new Set());
+    // Danh sách thông báo hiện tại cho callback socket (closure của subscribe không thấy state mới)
+    const notificationsRef = useRef([]);
 
     // THÊM: Bộ lọc chống trùng cho Feed (Group, Status...)
     const processedFeedIdsRef = useRef(new Set());
@@ -213,6 +217,14 @@ export const ChatProvider = ({ children }) => {
         stompClientRef.current.subscribe(topic, (payload) => {
             const msg = JSON.parse(payload.body);
 
+            // Cập nhật tin nhắn (thu hồi/ghim/sửa/cảm xúc): chỉ gồm id + các trường thay đổi
+            if (msg.type === 'MSG_UPDATE') {
+                setMessages(prev => prev.map(m =>
+                    m.id === msg.msg.id ? { ...m, ...msg.msg } : m
+                ));
+                return;
+            }
+
             //Chặn tin nhắn của chính mình (để không hiện 2 lần) ---
             if (msg.senderId === currentUser) return;
             msg.type = 'GROUP';
@@ -221,6 +233,8 @@ export const ChatProvider = ({ children }) => {
         subscribedGroupsRef.current.add(topic);
     };
 
+    useEffect(() => { notificationsRef.current = notifications; }, [notifications]);
+
     useEffect(() => {
         if (!currentUser) return;
 
@@ -232,14 +246,21 @@ export const ChatProvider = ({ children }) => {
         const client = Stomp.over(() => new SockJS('http://localhost:8081/ws'));
         client.debug = () => {};
 
-        client.connect({}, () => {
+        // Gửi token ở frame CONNECT: server xác thực 1 lần và gắn user cho cả phiên
+        // wire-format: compact -> server chỉ bỏ các trường null trong payload (false / {} / [] vẫn giữ nguyên)
+        const connectHeaders = {
+            Authorization: `Bearer ${localStorage.getItem('token')}`,
+            'wire-format': 'compact'
+        };
+
+        client.connect(connectHeaders, () => {
             console.log("✅ Socket Connected");
             setIsConnected(true);
             stompClientRef.current = client;
 
             // 1. Chat riêng
             // 1. Chat riêng (Đã nâng cấp để nhận tin nhắn Sửa)
-            client.subscribe(`/user/${currentUser}/queue/messages`, (payload) => {
+            client.subscribe('/user/queue/messages', (payload) => {
                 const data = JSON.parse(payload.body);
 
                 // 🟢 CASE 1: Nếu là tin nhắn SỬA (Realtime Edit)
@@ -268,8 +289,11 @@ export const ChatProvider = ({ children }) => {
 
             // 2. Status & Feed
             client.subscribe('/topic/status', (payload) => {
-                const update = JSON.parse(payload.body);
-                setUsers(prev => prev.map(u => u.username === update.username ? { ...u, status: update.status } : u));
+                // Server gom nhiều thay đổi vào 1 frame: [{username, status}, ...]
+                const data = JSON.parse(payload.body);
+                const updates = Array.isArray(data) ? data : [data];
+                const statusByUser = Object.fromEntries(updates.map(x => [x.username, x.status]));
+                setUsers(prev => prev.map(u => statusByUser[u.username] ? { ...u, status: statusByUser[u.username] } : u));
             });
 
             client.subscribe('/topic/feed', (payload) => {
@@ -339,13 +363,27 @@ export const ChatProvider = ({ children }) => {
             });
 
             // 3. Notification (Cũng lọc trùng)
-            client.subscribe(`/user/${currentUser}/queue/notifications`, (payload) => {
-                const newNoti = JSON.parse(payload.body);
-                if (!newNoti) return;
-                if (processedNotiIdsRef.current.has(newNoti.id)) return;
-                processedNotiIdsRef.current.add(newNoti.id);
-                setNotifications(prev => [newNoti, ...prev]);
-                setUnreadCount(prev => prev + 1);
+            // Server gộp theo lô: 1 frame có thể là 1 thông báo hoặc mảng nhiều thông báo (cũ -> mới)
+            client.subscribe('/user/queue/notifications', (payload) => {
+                const body = JSON.parse(payload.body);
+                if (!body) return;
+                // Thông báo gộp ("A, B và 12 người khác...") được bắn lại cùng id mỗi lần có người mới:
+                // lọc trùng theo id + createdAt, thay bản cũ trong danh sách và đưa lên đầu
+                const notiKey = n => `${n.id}:${n.createdAt}`;
+                const fresh = (Array.isArray(body) ? body : [body])
+                    .filter(n => n && !processedNotiIdsRef.current.has(notiKey(n)));
+                if (fresh.length === 0) return;
+                fresh.forEach(n => processedNotiIdsRef.current.add(notiKey(n)));
+                const newNoti = fresh[fresh.length - 1];
+                const freshIds = new Set(fresh.map(n => n.id));
+                setNotifications(prev => [...[...fresh].reverse(), ...prev.filter(n => !freshIds.has(n.id))]);
+                const known = new Set(notificationsRef.current.map(n => n.id));
+                if (fresh.some(n => n.actorCount > 1 || known.has(n.id))) {
+                    // Có bản gộp (kể cả cùng 1 người làm lại): không biết bản cũ đã đọc chưa -> hỏi lại server cho đúng số đỏ
+                    api.get('/notifications/unread-count').then(res => setUnreadCount(res.data.count)).catch(e => {});
+                } else {
+                    setUnreadCount(prev => prev + fresh.length);
+                }
                 const isSoundOn = localStorage.getItem('soundEnabled') === 'true';
                 if (isSoundOn) {
                     try {
@@ -359,7 +397,7 @@ export const ChatProvider = ({ children }) => {
                 message.info(newNoti.content);
             });
 
-            client.subscribe(`/user/${currentUser}/queue/levelup`, (payload) => {
+            client.subscribe('/user/queue/levelup', (payload) => {
                 try {
                     const data = JSON.parse(payload.body);
                     console.log("🎉 SỰ KIỆN LÊN CẤP:", data);
@@ -565,6 +603,18 @@ export const ChatProvider = ({ children }) => {
         return u ? u.avatar : getAvatarUrl(target, target, null);
     };
 
+    const loadMoreNotifications = async () => {
+        if (!notiCursor) return;
+        try {
+            const res = await api.get('/notifications/page', { params: { size: 20, before: notiCursor } });
+            setNotifications(prev => {
+                const seen = new Set(prev.map(n => n.id));
+                return [...prev, ...res.data.notifications.filter(n => !seen.has(n.id))];
+            });
+            setNotiCursor(res.data.hasNext ? res.data.nextCursor : null);
+        } catch (e) {}
+    };
+
     const markNotificationsRead = async () => {
         if (unreadCount > 0) {
             try { await api.put('/notifications/read'); setUnreadCount(0); setNotifications(prev => prev.map(n => ({...n, read: true}))); } catch (e) {}
@@ -585,10 +635,12 @@ export const ChatProvider = ({ children }) => {
             fetchMyBalance();
             fetchUsers();
             fetchMessages();
-            api.get('/notifications').then(res => {
-                setNotifications(res.data);
-                setUnreadCount(res.data.filter(n => !n.read).length);
+            // Hộp thư tải theo trang, số chưa đọc lấy riêng (không cần tải hết để đếm)
+            api.get('/notifications/page', { params: { size: 20 } }).then(res => {
+                setNotifications(res.data.notifications);
+                setNotiCursor(res.data.hasNext ? res.data.nextCursor : null);
             }).catch(e => {});
+            api.get('/notifications/unread-count').then(res => setUnreadCount(res.data.count)).catch(e => {});
         }
     }, [currentUser]);
 
@@ -597,7 +649,8 @@ export const ChatProvider = ({ children }) => {
         currentUser, currentFullName, currentAvatar, setCurrentAvatar,
         isConnected, loginUser, logoutUser,
         users, getUserAvatar, refreshGroups, leaveGroup,
-        myStatus, updateUserStatus, notifications, unreadCount, markNotificationsRead, feedUpdate, fetchMessages, fetchUsers,
+        myStatus, updateUserStatus, notifications, unreadCount, markNotificationsRead,
+        hasMoreNotifications: !!notiCursor, loadMoreNotifications, feedUpdate, fetchMessages, fetchUsers,
         deleteNotification, clearAllNotifications, markOneRead, setCurrentUser, myBalance, fetchMyBalance, myTotalDeposited, fetchMyProfile, fetchMyTotalDeposited,
         celebrationData,
         setCelebrationData, currentRole
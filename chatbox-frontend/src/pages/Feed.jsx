@@ -1,27 +1,38 @@
 import React, { useState, useEffect } from 'react';
-import { Layout, message } from 'antd'; // Bỏ bớt các import thừa
+import { Layout, message, Button } from 'antd'; // Bỏ bớt các import thừa
 import AppHeader from '../components/layout/AppHeader';
 import PostCard from '../components/feed/PostCard';
 import CreatePost from '../components/feed/CreatePost'; // 1. Import Component Đăng bài xịn
 import api from '../services/api';
 import { useChat } from '../context/ChatContext';
+import { applyReactionUpdate, applyPostStats } from '../utils/common';
 import PageTitle from "../components/common/PageTitle.jsx";
 const { Content } = Layout;
 import { useSettings } from "../context/SettingsContext.jsx";
 
 const Feed = () => {
     const [posts, setPosts] = useState([]);
-    const { feedUpdate } = useChat(); // Lấy tín hiệu Real-time
+    const [nextCursor, setNextCursor] = useState(null);
+    const [loadingMore, setLoadingMore] = useState(false);
+    const { feedUpdate, currentUser } = useChat(); // Lấy tín hiệu Real-time
     const { t } = useSettings();
 
-    // Hàm tải danh sách bài viết
-    const fetchPosts = async () => {
+    // Hàm tải danh sách bài viết (phân trang: truyền cursor của trang trước để lấy tiếp)
+    const fetchPosts = async (before = null) => {
         try {
-            const res = await api.get('/posts');
+            setLoadingMore(true);
+            const res = await api.get('/posts/feed', { params: { size: 10, before: before || undefined } });
 
-            setPosts(res.data);
+            setPosts(prev => {
+                if (!before) return res.data.posts;
+                const seen = new Set(prev.map(p => p.id));
+                return [...prev, ...res.data.posts.filter(p => !seen.has(p.id))];
+            });
+            setNextCursor(res.data.hasNext ? res.data.nextCursor : null);
         } catch (error) {
             message.error("Lỗi tải Newsfeed!");
+        } finally {
+            setLoadingMore(false);
         }
     };
 
@@ -47,10 +58,15 @@ const Feed = () => {
             if (feedUpdate.type === 'POST_REACTION_UPDATE') {
                 setPosts(prev => prev.map(p =>
                     String(p.id) === String(feedUpdate.postId)
-                        ? { ...p, reactions: feedUpdate.reactions, likeCount: feedUpdate.likeCount }
+                        ? applyReactionUpdate(p, feedUpdate, currentUser)
                         : p
                 ));
             }
+            else if (feedUpdate.type === 'POST_STATS') {
+                setPosts(prev => prev.map(p =>
+                    String(p.id) === String(feedUpdate.postId) ? applyPostStats(p, feedUpdate, currentUser) : p
+                ));
+            }
             else if (feedUpdate.type === 'POST_DELETED') {
                 setPosts(prev => prev.filter(p => p.id !== feedUpdate.postId));
             }
@@ -61,7 +77,9 @@ const Feed = () => {
             }
             else if (feedUpdate.type === 'COMMENT_UPDATE') {
                 setPosts(prev => prev.map(p =>
-                    p.id === feedUpdate.postId ? { ...p, comments: [...p.comments, feedUpdate.comment] } : p
+                    p.id === feedUpdate.postId
+                        ? { ...p, comments: [...(p.comments || []), feedUpdate.comment], commentCount: (p.commentCount ?? p.comments.length) + 1 }
+                        : p
                 ));
             }
             else if (feedUpdate.type === 'POST_UPDATED') {
@@ -79,7 +97,7 @@ const Feed = () => {
                 }));
             }
         }
-    }, [feedUpdate]);
+    }, [feedUpdate, currentUser]);
 
     // Hàm này được gọi khi CreatePost đăng bài thành công
     // (Giúp hiện bài ngay lập tức cho chính mình mà không cần chờ Socket vòng về)
@@ -107,6 +125,14 @@ const Feed = () => {
                     <PostCard key={post.id} post={post} />
                 ))}
 
+                {nextCursor && (
+                    <div style={{ textAlign: 'center', margin: '10px 0 30px' }}>
+                        <Button loading={loadingMore} onClick={() => fetchPosts(nextCursor)}>
+                            {t('loadMorePosts')}
+                        </Button>
+                    </div>
+                )}
+
             </Content>
         </Layout>
     );
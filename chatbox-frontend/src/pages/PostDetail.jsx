@@ -6,13 +6,14 @@ import PostCard from '../components/feed/PostCard';
 import api from '../services/api';
 import { useChat } from '../context/ChatContext';
 import { useSettings } from '../context/SettingsContext';
+import { applyReactionUpdate, applyPostStats } from '../utils/common';
 
 const { Content } = Layout;
 
 const PostDetail = () => {
     const { postId } = useParams();
     const navigate = useNavigate();
-    const { feedUpdate } = useChat();
+    const { feedUpdate, currentUser } = useChat();
     const { t } = useSettings();
 
     const [post, setPost] = useState(null);
@@ -47,16 +48,17 @@ const PostDetail = () => {
                 if (feedUpdate.type === 'COMMENT_UPDATE') {
                     const exists = prev.comments.some(c => c.id === feedUpdate.comment.id);
                     if (exists) return prev;
-                    return { ...prev, comments: [...prev.comments, feedUpdate.comment] };
+                    return { ...prev, comments: [...prev.comments, feedUpdate.comment], commentCount: prev.comments.length + 1 };
                 }
 
                 // B. REACTION
                 if (feedUpdate.type === 'POST_REACTION_UPDATE') {
-                    return {
-                        ...prev,
-                        reactions: feedUpdate.reactions,
-                        likeCount: feedUpdate.likeCount
-                    };
+                    return applyReactionUpdate(prev, feedUpdate, currentUser);
+                }
+
+                // B2. FRAME GOM (cảm xúc + bình luận + sửa bài)
+                if (feedUpdate.type === 'POST_STATS') {
+                    return applyPostStats(prev, feedUpdate, currentUser);
                 }
 
                 // C. LIKE
@@ -78,7 +80,7 @@ const PostDetail = () => {
                 navigate('/feed');
             }
         }
-    }, [feedUpdate, postId, navigate, t]);
+    }, [feedUpdate, postId, navigate, t, currentUser]);
 
     const handleRemoveSelf = () => {
         navigate('/feed');
@@ -11,7 +11,7 @@ import {
 } from '@ant-design/icons';
 import api from '../services/api';
 import { useChat } from '../context/ChatContext';
-import { getAvatarUrl } from '../utils/common';
+import { getAvatarUrl, applyReactionUpdate, applyPostStats } from '../utils/common';
 import moment from 'moment';
 import dayjs from 'dayjs';
 import PostCard from '../components/feed/PostCard';
@@ -70,10 +70,9 @@ const Profile = () => {
                     const res = await api.get(`/users/${usernameToFetch}`);
                     setUserInfo(res.data);
 
-                    const postsRes = await api.get('/posts');
-                    // Lọc bài của user này
-                    const myPosts = postsRes.data.filter(p => p.username === usernameToFetch);
-                    setUserPosts(myPosts);
+                    // Chỉ lấy bài của user này (server lọc theo author, không tải cả feed về lọc)
+                    const postsRes = await api.get('/posts/feed', { params: { author: usernameToFetch, size: 50 } });
+                    setUserPosts(postsRes.data.posts);
                 }
             } catch (error) {
                 console.error("Lỗi tải profile:", error);
@@ -148,11 +147,7 @@ const Profile = () => {
             setUserPosts(prev => prev.map(p =>
                 // Tìm đúng bài viết đang được thả tim để cập nhật
                 String(p.id) === String(feedUpdate.postId)
-                    ? {
-                        ...p,
-                        reactions: feedUpdate.reactions, // Cập nhật map reactions mới
-                        likeCount: feedUpdate.likeCount  // Cập nhật số lượng
-                    }
+                    ? applyReactionUpdate(p, feedUpdate, currentUser) // Cập nhật số đếm + cảm xúc của mình
                     : p
             ));
         }
@@ -162,11 +157,21 @@ const Profile = () => {
                     // Check trùng comment
                     const exists = p.comments?.some(c => String(c.id) === String(feedUpdate.comment.id));
                     if(exists) return p;
-                    return { ...p, comments: [...(p.comments || []), feedUpdate.comment] };
+                    return {
+                        ...p,
+                        comments: [...(p.comments || []), feedUpdate.comment],
+                        commentCount: (p.commentCount ?? (p.comments || []).length) + 1
+                    };
                 }
                 return p;
             }));
         }
+        // Frame gom (cảm xúc + bình luận + sửa bài của 1 bài trong ~250ms)
+        else if (feedUpdate.type === 'POST_STATS') {
+            setUserPosts(prev => prev.map(p =>
+                String(p.id) === String(feedUpdate.postId) ? applyPostStats(p, feedUpdate, currentUser) : p
+            ));
+        }
         else if (feedUpdate.type === 'POST_DELETED') {
             setUserPosts(prev => prev.filter(p => String(p.id) !== String(feedUpdate.postId)));
         }
@@ -176,7 +181,7 @@ const Profile = () => {
             ));
         }
 
-    }, [feedUpdate, usernameToFetch]);
+    }, [feedUpdate, usernameToFetch, currentUser]);
 
     // 5. CÁC HÀM XỬ LÝ SỰ KIỆN
 
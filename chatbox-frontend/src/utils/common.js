@@ -34,4 +34,44 @@ export const getStatusColor = (status) => {
         case 'OFFLINE': return '#d9d9d9'; // Xám
         default: return '#d9d9d9';
     }
-};
\ No newline at end of file
+};
+// Áp frame POST_REACTION_UPDATE vào 1 bài viết: server chỉ gửi số đếm theo loại + ai vừa đổi thành gì
+// (map reactions đầy đủ chỉ có ở trang chi tiết -> cập nhật nếu đang có)
+export const applyReactionUpdate = (post, update, currentUser) => {
+    const next = { ...post, reactionCounts: update.reactionCounts || {}, likeCount: update.likeCount };
+    if (update.username === currentUser) {
+        next.myReaction = update.reaction || null;
+        next.likedByMe = !!update.reaction;
+    }
+    if (post.reactions && update.username) {
+        const reactions = { ...post.reactions };
+        if (update.reaction) reactions[update.username] = update.reaction;
+        else delete reactions[update.username];
+        next.reactions = reactions;
+    }
+    return next;
+};
+
+// Áp frame POST_STATS (server gom nhiều sự kiện của 1 bài trong ~250ms): số đếm mới nhất,
+// danh sách ai vừa đổi cảm xúc, các bình luận mới, nội dung sửa cuối cùng
+// Frame có phần cảm xúc không (reactionCounts rỗng có thể bị bỏ khi gỡ cảm xúc cuối cùng -> xét cả likeCount / reactions)
+export const hasReactionStats = (stats) =>
+    !!stats.reactionCounts || stats.likeCount !== undefined || !!(stats.reactions && stats.reactions.length);
+
+export const applyPostStats = (post, stats, currentUser) => {
+    let next = { ...post };
+    if (hasReactionStats(stats)) {
+        const changes = stats.reactions && stats.reactions.length ? stats.reactions : [{}];
+        changes.forEach(change => {
+            next = applyReactionUpdate(next, { ...change, reactionCounts: stats.reactionCounts || {}, likeCount: stats.likeCount || 0 }, currentUser);
+        });
+    }
+    if (stats.comments && stats.comments.length) {
+        const existing = next.comments || [];
+        const fresh = stats.comments.filter(c => !existing.some(e => String(e.id) === String(c.id)));
+        next.comments = [...existing, ...fresh];
+        next.commentCount = (post.commentCount ?? existing.length) + fresh.length;
+    }
+    if (stats.newContent !== undefined) next.content = stats.newContent;
+    return next;
+};
@@ -117,6 +117,8 @@ export const translations = {
         // Comments
         writeComment: "Viết bình luận dưới tên {{name}}...",
         viewMoreComments: "Xem thêm {{count}} bình luận...",
+        loadMorePosts: "Xem thêm bài viết",
+        loadMoreNotifications: "Xem thông báo cũ hơn",
         messsage: "Nhắn tin",
         commented: "Đã comment",
 
@@ -550,6 +552,8 @@ export const translations = {
         // Comments
         writeComment: "Write a comment as {{name}}...",
         viewMoreComments: "View {{count}} more comments...",
+        loadMorePosts: "Load more posts",
+        loadMoreNotifications: "Load older notifications",
         messsage: "Message",
         commented: "Commented: {{name}}",
 